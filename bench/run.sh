@@ -0,0 +1,13 @@
+#!/bin/sh
+# Сборка и запуск бенчмарков; результат JMH в JSON — bench/results/<коммит>.json,
+# чтобы прогоны разных коммитов можно было сравнить (например, jmh.morethan.io).
+# Параметры передаются JMH как есть:
+#   bench/run.sh RepositoryBench -p size=1000,100000
+#   bench/run.sh -p impl=sqlite -f 1 -wi 2 -i 3
+set -e
+cd "$(dirname "$0")"
+mvn -q -B package
+mkdir -p results
+rev=$(git rev-parse --short HEAD 2>/dev/null || echo local)
+if [ -n "$(git status --porcelain -- ../src 2>/dev/null)" ]; then rev="$rev-dirty"; fi
+java -jar target/benchmarks.jar -rf json -rff "results/$rev.json" "$@"
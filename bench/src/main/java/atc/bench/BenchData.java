@@ -0,0 +1,88 @@
+package atc.bench;
+
+import atc.data.CachingTariffRepository;
+import atc.data.ColumnarTariffRepository;
+import atc.data.InMemoryTariffRepository;
+import atc.data.SqliteStorageProfile;
+import atc.data.SqliteTariffRepository;
+import atc.data.TariffRepository;
+import atc.model.Tariff;
+import atc.model.TariffType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Общие данные бенчмарков: воспроизводимый набор тарифов и хранилища по имени.
+ * Города у всех строк разные — массовые операции не упираются в дубли.
+ */
+final class BenchData {
+    private static final String LETTERS = "абвгдежзиклмнопрстуфхцчшэюя";
+
+    private BenchData() {}
+
+    /** n тарифов: половина льготных, цены 1.00..500.00. */
+    static List<Tariff> tariffs(int n) {
+        Random r = new Random(42);
+        List<Tariff> res = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            res.add(tariff(city("Город", i), r));
+        }
+        return res;
+    }
+
+    /** Уникальное допустимое название: prefix и номер, записанный буквами (цифры городу нельзя). */
+    static String city(String prefix, int n) {
+        StringBuilder sb = new StringBuilder(prefix).append(' ');
+        do {
+            sb.append(LETTERS.charAt(n % LETTERS.length()));
+            n /= LETTERS.length();
+        } while (n > 0);
+        return sb.toString();
+    }
+
+    static Tariff tariff(String city, Random r) {
+        double price = (100 + r.nextInt(49_901)) / 100.0;
+        return r.nextBoolean()
+                ? new Tariff(city, TariffType.REGULAR, price, 0)
+                : new Tariff(city, TariffType.PRIVILEGED, price, r.nextInt(51));
+    }
+
+    /**
+     * Хранилище: memory | columnar | sqlite | sqlite-wal (временный файл, удаляется в close()).
+     * sqlite — прежний режим (журнал отката, FULL), sqlite-wal — SqliteStorageProfile.wal().
+     * Суффикс «+cache» оборачивает хранилище в CachingTariffRepository.
+     */
+    static TariffRepository repository(String impl) throws IOException {
+        if (impl.endsWith("+cache")) {
+            return new CachingTariffRepository(repository(impl.substring(0, impl.length() - "+cache".length())));
+        }
+        switch (impl) {
+            case "memory":
+                return new InMemoryTariffRepository();
+            case "columnar":
+                return new ColumnarTariffRepository();
+            case "sqlite":
+            case "sqlite-wal":
+                File db = File.createTempFile("atc-bench", ".db");
+                db.deleteOnExit();
+                SqliteStorageProfile profile = impl.equals("sqlite-wal")
+                        ? SqliteStorageProfile.wal() : SqliteStorageProfile.defaults();
+                return new SqliteTariffRepository("jdbc:sqlite:" + db.getAbsolutePath(), profile) {
+                    @Override
+                    public synchronized void close() {
+                        super.close();
+                        for (String suffix : new String[] {"", "-wal", "-shm"}) {
+                            //noinspection ResultOfMethodCallIgnored
+                            new File(db.getPath() + suffix).delete();
+                        }
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Неизвестное хранилище: " + impl);
+        }
+    }
+}
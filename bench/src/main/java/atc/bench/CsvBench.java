@@ -0,0 +1,64 @@
+package atc.bench;
+
+import atc.data.InMemoryTariffRepository;
+import atc.io.CsvIO;
+import atc.model.Tariff;
+import atc.service.TariffManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Экспорт (CsvIO.save) и импорт (CsvIO.loadAdd) файла из size тарифов.
+ * Импорт идёт в пустой менеджер в памяти — замеряется разбор и проверка дублей, а не БД.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsvBench {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    private List<Tariff> tariffs;
+    private File source, target;
+    private TariffManager manager;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        tariffs = BenchData.tariffs(size);
+        source = File.createTempFile("atc-bench", ".csv");
+        target = File.createTempFile("atc-bench", ".csv");
+        CsvIO.save(source, tariffs);
+    }
+
+    /** Свежий менеджер на каждый импорт (в SingleShotTime вызов = итерация, замер не искажается). */
+    @Setup(Level.Invocation)
+    public void freshManager() {
+        manager = new TariffManager(new InMemoryTariffRepository());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        source.delete();
+        //noinspection ResultOfMethodCallIgnored
+        target.delete();
+    }
+
+    @Benchmark
+    public File save() {
+        CsvIO.save(target, tariffs);
+        return target;
+    }
+
+    @Benchmark
+    public CsvIO.ImportResult loadAdd() {
+        return CsvIO.loadAdd(source, manager);
+    }
+}
@@ -0,0 +1,89 @@
+package atc.bench;
+
+import atc.data.TariffRepository;
+import atc.model.Tariff;
+import atc.service.TariffChange;
+import atc.service.TariffException;
+import atc.service.TariffManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TariffManager поверх хранилища impl с size тарифами: добавление с проверкой дублей,
+ * массовое изменение цен и средняя цена.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ManagerBench {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"memory", "sqlite", "sqlite-wal"})
+    public String impl;
+
+    private TariffRepository repo;
+    private TariffManager manager;
+    private List<Tariff> existing;
+    private final Random random = new Random(7);
+    private int seq;
+    /** Позиция последней вставки — из события менеджера. */
+    private int inserted;
+    /** +10% и обратно: цены не уходят из допустимого диапазона. */
+    private boolean up;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        repo = BenchData.repository(impl);
+        manager = new TariffManager(repo);
+        manager.addAll(BenchData.tariffs(size));
+        existing = List.copyOf(manager.getTariffs());
+        manager.addChangeListener(c -> {
+            if (c.getKind() == TariffChange.Kind.INSERTED) inserted = c.position(0);
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repo.close();
+    }
+
+    /** Новый тариф: проверка дубля, запись в хранилище, вставка в кэш; затем удаление. */
+    @Benchmark
+    public int addUnique() {
+        manager.add(BenchData.tariff(BenchData.city("Новый", seq++), random));
+        manager.remove(inserted);
+        return inserted;
+    }
+
+    /** Дубль отсекается индексом, до хранилища не доходит. */
+    @Benchmark
+    public String addDuplicate() {
+        Tariff t = existing.get(random.nextInt(existing.size()));
+        try {
+            manager.add(new Tariff(t.getCity(), t.getType(), t.getPricePerMinute(), t.getDiscountPercent()));
+            throw new IllegalStateException("дубль добавлен");
+        } catch (TariffException e) {
+            return e.getMessage();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void increaseAllPrices() {
+        up = !up;
+        manager.increaseAllPrices(up ? 10.0 : -100.0 / 11.0);
+    }
+
+    @Benchmark
+    public double averageFinalPrice() {
+        return manager.averageFinalPrice();
+    }
+}
@@ -0,0 +1,69 @@
+package atc.bench;
+
+import atc.data.TariffRepository;
+import atc.model.Tariff;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CRUD хранилищ на таблице из size строк. Размер таблицы не меняется:
+ * вставка замеряется вместе с удалением той же строки.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryBench {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"memory", "columnar", "sqlite", "sqlite-wal", "memory+cache", "sqlite+cache"})
+    public String impl;
+
+    private TariffRepository repo;
+    private long[] ids;
+    private final Random random = new Random(7);
+    private int seq;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        repo = BenchData.repository(impl);
+        List<Tariff> saved = repo.addAll(BenchData.tariffs(size));
+        ids = new long[saved.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = saved.get(i).getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repo.close();
+    }
+
+    private long randomId() {
+        return ids[random.nextInt(ids.length)];
+    }
+
+    @Benchmark
+    public Optional<Tariff> findById() {
+        return repo.findById(randomId());
+    }
+
+    @Benchmark
+    public boolean update() {
+        Tariff t = repo.findById(randomId()).orElseThrow();
+        t.setPricePerMinute(t.getPricePerMinute() == 1.00 ? 2.00 : 1.00);
+        return repo.update(t);
+    }
+
+    @Benchmark
+    public boolean addThenDelete() {
+        Tariff t = repo.add(BenchData.tariff(BenchData.city("Новый", seq++), random));
+        return repo.delete(t.getId());
+    }
+}
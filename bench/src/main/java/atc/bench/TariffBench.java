@@ -0,0 +1,34 @@
+package atc.bench;
+
+import atc.model.Tariff;
+import atc.model.TariffType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Tariff.finalPrice(): обычный и льготный тариф. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TariffBench {
+    private Tariff regular, privileged;
+
+    @Setup
+    public void setup() {
+        regular = new Tariff("Москва", TariffType.REGULAR, 12.34, 0);
+        privileged = new Tariff("Москва", TariffType.PRIVILEGED, 12.34, 15);
+    }
+
+    @Benchmark
+    public double finalPriceRegular() {
+        return regular.finalPrice();
+    }
+
+    @Benchmark
+    public double finalPricePrivileged() {
+        return privileged.finalPrice();
+    }
+}
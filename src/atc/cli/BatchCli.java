@@ -0,0 +1,279 @@
+package atc.cli;
+
+import atc.data.SqliteStorageProfile;
+import atc.data.SqliteTariffRepository;
+import atc.data.TariffFilter;
+import atc.io.CdrCsvIO;
+import atc.io.CsvIO;
+import atc.model.TariffType;
+import atc.rating.CallRatingEngine;
+import atc.service.ProgressMonitor;
+import atc.service.TariffException;
+import atc.service.TariffManager;
+import atc.service.TariffStatistics;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Пакетный режим без окна: atc.App с аргументами командной строки.
+ * Работает с БД напрямую: increase, export и rate — через SqliteTariffRepository
+ * (UPDATE, курсор, одна выборка), TariffManager со снимком всей таблицы строится только
+ * для import (проверка дублей) и stats (агрегаты). Классы AWT/Swing не загружаются,
+ * так что годится для сервера без дисплея и cron.
+ *
+ *   atc.App [--db файл] [--progress] команда [параметры]
+ *
+ * Код возврата: EXIT_OK, EXIT_ERROR (ошибка операции или данных), EXIT_USAGE (неверный вызов).
+ */
+public final class BatchCli {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_ERROR = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String DEFAULT_DB = "atc.db";
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Использование: atc.App [--db файл] [--progress] команда [параметры]",
+            "  import файл.csv...                      добавить тарифы из CSV (дубли пропускаются)",
+            "  increase процент [--type T] [--city Г]  изменить цены (T: REGULAR | PRIVILEGED)",
+            "  export файл.csv                         выгрузить все тарифы",
+            "  stats [--by-city]                       итоги итоговых цен",
+            "  rate звонки.csv итог.csv [--parallel]   тарифицировать звонки",
+            "  help                                    эта справка",
+            "По умолчанию БД — " + DEFAULT_DB + "; режим хранения — свойства -Datc.sql.* (SqliteStorageProfile).");
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    private String db = DEFAULT_DB;
+    private boolean progress;
+
+    private BatchCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /** Выполнить команду и вернуть код возврата (System.exit — на вызывающем). */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        return new BatchCli(out, err).run(args);
+    }
+
+    /** Неверные аргументы команды. */
+    private static final class UsageException extends RuntimeException {
+        UsageException(String message) { super(message); }
+    }
+
+    private int run(String[] args) {
+        List<String> rest = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--db" -> db = value(args, ++i, "--db");
+                    case "--progress" -> progress = true;
+                    default -> rest.add(args[i]);
+                }
+            }
+            if (rest.isEmpty()) {
+                err.println(USAGE);
+                return EXIT_USAGE;
+            }
+            if (rest.get(0).equals("help") || rest.get(0).equals("--help")) {
+                out.println(USAGE);
+                return EXIT_OK;
+            }
+            String command = rest.remove(0);
+            Runnable action = switch (command) {
+                case "import" -> () -> importFiles(rest);
+                case "increase" -> () -> increase(rest);
+                case "export" -> () -> export(rest);
+                case "stats" -> () -> stats(rest);
+                case "rate" -> () -> rate(rest);
+                default -> throw new UsageException("неизвестная команда: " + command);
+            };
+            action.run();
+            return EXIT_OK;
+        } catch (UsageException e) {
+            err.println("Ошибка: " + e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        } catch (TariffException | CancellationException e) {
+            err.println("Ошибка: " + e.getMessage());
+            return EXIT_ERROR;
+        }
+    }
+
+    // ---------- команды ----------
+
+    private void importFiles(List<String> args) {
+        if (args.isEmpty()) throw new UsageException("import: не указан файл");
+        for (String a : args) {
+            if (a.startsWith("--")) throw new UsageException("import: неизвестный параметр " + a);
+        }
+        withManager(manager -> {
+            for (String name : args) {
+                File file = existing(name);
+                CsvIO.ImportResult r = CsvIO.loadAdd(file, manager, monitor("import " + name));
+                out.printf(Locale.ROOT, "%s: добавлено %d, пропущено %d, всего строк %d%n",
+                        name, r.getAdded(), r.getSkipped(), r.getTotal());
+            }
+        });
+    }
+
+    private void increase(List<String> args) {
+        if (args.isEmpty()) throw new UsageException("increase: не указан процент");
+        double percent = number(args.get(0), "процент");
+        TariffFilter filter = TariffFilter.all();
+        for (int i = 1; i < args.size(); i++) {
+            switch (args.get(i)) {
+                case "--type" -> filter = filter.withType(type(value(args, ++i, "--type")));
+                case "--city" -> filter = filter.withCityKey(value(args, ++i, "--city"));
+                default -> throw new UsageException("increase: неизвестный параметр " + args.get(i));
+            }
+        }
+        double factor = TariffManager.priceFactor(percent);
+        TariffFilter f = filter;
+        withRepository(repo -> {
+            int n = repo.scalePrices(factor, f, monitor("increase"));
+            out.printf(Locale.ROOT, "Цены изменены на %.2f%%: тарифов %d%n", percent, n);
+        });
+    }
+
+    private void export(List<String> args) {
+        if (args.size() != 1) throw new UsageException("export: нужен один файл");
+        File file = new File(args.get(0));
+        withRepository(repo -> {
+            long n = repo.count(TariffFilter.all());
+            CsvIO.export(file, repo, monitor("export"));
+            out.printf(Locale.ROOT, "%s: выгружено тарифов %d%n", file, n);
+        });
+    }
+
+    private void stats(List<String> args) {
+        boolean byCity = false;
+        for (String a : args) {
+            if (!a.equals("--by-city")) throw new UsageException("stats: неизвестный параметр " + a);
+            byCity = true;
+        }
+        boolean cities = byCity;
+        withManager(manager -> {
+            TariffStatistics st = manager.statistics();
+            if (st.getOverall().getCount() == 0) throw new TariffException("Нет тарифов");
+            out.println("группа;тарифов;сумма;средняя;мин;макс");
+            printSummary("все", st.getOverall());
+            st.getByType().forEach((type, s) -> printSummary(type.name(), s));
+            if (cities) st.getByCity().forEach(this::printSummary);
+        });
+    }
+
+    private void rate(List<String> args) {
+        boolean parallel = false;
+        List<String> files = new ArrayList<>();
+        for (String a : args) {
+            if (a.equals("--parallel")) parallel = true;
+            else if (a.startsWith("--")) throw new UsageException("rate: неизвестный параметр " + a);
+            else files.add(a);
+        }
+        if (files.size() != 2) throw new UsageException("rate: нужны файл звонков и файл результата");
+        File in = existing(files.get(0));
+        File target = new File(files.get(1));
+        boolean par = parallel;
+        withRepository(repo -> {
+            CallRatingEngine engine = CallRatingEngine.of(repo.findAll());
+            ProgressMonitor m = monitor("rate");
+            CdrCsvIO.Result r = par
+                    ? CdrCsvIO.rateParallel(in, target, engine, true, m)
+                    : CdrCsvIO.rate(in, target, engine, m);
+            out.printf(Locale.ROOT, "Звонков %d, тарифицировано %d, без тарифа %d, сумма %.2f руб%n",
+                    r.getRecords(), r.getRated(), r.getUnrated(), r.getTotalCents() / 100.0);
+        });
+    }
+
+    // ---------- общее ----------
+
+    private interface RepositoryAction {
+        void run(SqliteTariffRepository repo);
+    }
+
+    private interface ManagerAction {
+        void run(TariffManager manager);
+    }
+
+    /** Открыть БД (без отложенной записи: каждая операция сразу в файле), выполнить, закрыть. */
+    private void withRepository(RepositoryAction action) {
+        SqliteTariffRepository repo = new SqliteTariffRepository(
+                "jdbc:sqlite:" + db, SqliteStorageProfile.fromSystemProperties());
+        try {
+            action.run(repo);
+        } finally {
+            repo.close();
+        }
+    }
+
+    /** То же с TariffManager поверх БД: он сразу читает всю таблицу в снимок. */
+    private void withManager(ManagerAction action) {
+        withRepository(repo -> action.run(new TariffManager(repo)));
+    }
+
+    private void printSummary(String group, TariffStatistics.Summary s) {
+        out.printf(Locale.ROOT, "%s;%d;%.2f;%.2f;%.2f;%.2f%n",
+                group, s.getCount(), s.getTotal(), s.getAverage(), s.getMin(), s.getMax());
+    }
+
+    /** С --progress ход пишется в stderr шагами по 10%. */
+    private ProgressMonitor monitor(String what) {
+        if (!progress) return ProgressMonitor.NONE;
+        return new ProgressMonitor() {
+            private int shown = -1;
+
+            @Override
+            public void progress(long done, long total) {
+                if (total <= 0) return;
+                int pct = (int) Math.min(100, done * 100 / total);
+                if (pct / 10 > shown) {
+                    shown = pct / 10;
+                    err.println(what + ": " + pct + "%");
+                }
+            }
+
+            @Override
+            public boolean isCancelled() { return false; }
+        };
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) throw new UsageException(option + ": нет значения");
+        return args[i];
+    }
+
+    private static String value(List<String> args, int i, String option) {
+        if (i >= args.size()) throw new UsageException(option + ": нет значения");
+        return args.get(i);
+    }
+
+    private static double number(String s, String what) {
+        try {
+            return Double.parseDouble(s.trim().replace(',', '.'));
+        } catch (NumberFormatException e) {
+            throw new UsageException(what + ": не число: " + s);
+        }
+    }
+
+    private static TariffType type(String s) {
+        try {
+            return TariffType.valueOf(s.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new UsageException("неизвестный тип тарифа: " + s);
+        }
+    }
+
+    private static File existing(String name) {
+        File f = new File(name);
+        if (!f.isFile()) throw new TariffException("Файл не найден: " + name);
+        return f;
+    }
+}
@@ -0,0 +1,197 @@
+package atc.data;
+
+import atc.model.Tariff;
+import atc.service.ProgressMonitor;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Обёртка над любым TariffRepository: findById читает через LRU-кэш по id
+ * ограниченного размера (в SQLite — без запроса, в InMemory — без обхода списка).
+ *
+ * update/delete/deleteByIds снимают строку из кэша, deleteAll и scalePrices очищают его целиком.
+ * Загрузка идёт без блокировки кэша; если пока она шла, кэш инвалидировали, результат
+ * не кладётся — иначе гонка с update вернула бы в кэш старую строку.
+ * Tariff изменяемый, поэтому в кэше и наружу — копии.
+ */
+public class CachingTariffRepository implements TariffRepository {
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    private final TariffRepository repo;
+    private final int capacity;
+
+    // всё ниже — под this
+    private final Map<Long, Tariff> cache;
+    /** Растёт при каждой инвалидации; загрузка сверяет его до и после. */
+    private long version;
+    private long hits, misses, evictions;
+
+    public CachingTariffRepository(TariffRepository repo) {
+        this(repo, DEFAULT_CAPACITY);
+    }
+
+    public CachingTariffRepository(TariffRepository repo, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity >= 1");
+        this.repo = repo;
+        this.capacity = capacity;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Tariff> eldest) {
+                if (size() <= CachingTariffRepository.this.capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public Optional<Tariff> findById(long id) {
+        long seen;
+        synchronized (this) {
+            Tariff t = cache.get(id);
+            if (t != null) {
+                hits++;
+                return Optional.of(copy(t));
+            }
+            misses++;
+            seen = version;
+        }
+        Optional<Tariff> loaded = repo.findById(id);
+        if (loaded.isPresent()) {
+            synchronized (this) {
+                if (version == seen) cache.put(id, copy(loaded.get()));
+            }
+        }
+        return loaded;
+    }
+
+    // ---------- изменения: сначала хранилище, потом инвалидация ----------
+
+    @Override
+    public boolean update(Tariff t) {
+        try {
+            return repo.update(t);
+        } finally {
+            if (t.getId() != null) invalidate(t.getId());
+        }
+    }
+
+    @Override
+    public boolean delete(long id) {
+        try {
+            return repo.delete(id);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    @Override
+    public int deleteByIds(Collection<Long> ids) {
+        try {
+            return repo.deleteByIds(ids);
+        } finally {
+            synchronized (this) {
+                version++;
+                for (long id : ids) cache.remove(id);
+            }
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        try {
+            repo.deleteAll();
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public int scalePrices(double factor, TariffFilter filter) {
+        try {
+            return repo.scalePrices(factor, filter);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public int scalePrices(double factor, TariffFilter filter, ProgressMonitor monitor) {
+        try {
+            return repo.scalePrices(factor, filter, monitor);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    // ---------- без кэша ----------
+
+    @Override
+    public List<Tariff> findAll() { return repo.findAll(); }
+
+    @Override
+    public Tariff add(Tariff t) { return repo.add(t); }
+
+    @Override
+    public List<Tariff> addAll(Collection<Tariff> items) { return repo.addAll(items); }
+
+    @Override
+    public long count(TariffFilter filter) { return repo.count(filter); }
+
+    @Override
+    public List<Tariff> findPage(TariffFilter filter, TariffSort sort, Tariff after, int limit) {
+        return repo.findPage(filter, sort, after, limit);
+    }
+
+    @Override
+    public List<Tariff> findPageAt(TariffFilter filter, TariffSort sort, long offset, int limit) {
+        return repo.findPageAt(filter, sort, offset, limit);
+    }
+
+    @Override
+    public void forEachRow(TariffRowVisitor visitor) { repo.forEachRow(visitor); }
+
+    @Override
+    public void close() {
+        invalidateAll();
+        repo.close();
+    }
+
+    // ---------- статистика ----------
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+    public synchronized int getSize() { return cache.size(); }
+    public int getCapacity() { return capacity; }
+
+    /** Доля попаданий, 0..1 (0 — обращений ещё не было). */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "cache " + cache.size() + "/" + capacity + ": hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions;
+    }
+
+    private synchronized void invalidate(long id) {
+        version++;
+        cache.remove(id);
+    }
+
+    private synchronized void invalidateAll() {
+        version++;
+        cache.clear();
+    }
+
+    private static Tariff copy(Tariff t) {
+        return new Tariff(t.getId(), t.getCity(), t.getType(), t.getPricePerMinute(), t.getDiscountPercent());
+    }
+}
@@ -0,0 +1,368 @@
+package atc.data;
+
+import atc.model.Tariff;
+import atc.model.TariffType;
+import atc.service.TariffException;
+
+import java.util.*;
+
+/**
+ * Колоночное хранилище тарифов в памяти: вместо List&lt;Tariff&gt; — примитивные массивы.
+ *
+ *  ids      long[]  — id строки (0 — пустой/удалённый слот)
+ *  price    int[]   — цена в 1/10000 руб (CSV и БД хранят до 4 знаков; 1000.00 руб = 10 000 000)
+ *  discount short[] — скидка в сотых долях процента (0..10000)
+ *  type     byte[]  — ordinal TariffType, -1 — удалённый слот («надгробие»)
+ *  city     int[]   — номер города в словаре cities
+ *
+ * Поиск по id — через открытую адресацию id → слот (O(1)); удаление оставляет надгробие,
+ * и когда их становится больше живых строк, массивы уплотняются.
+ * Около 40 байт на тариф против ~150 у объекта Tariff со строкой и боксингом.
+ * count и scalePrices проверяют фильтр прямо по столбцам (условия на город — один раз
+ * на словарь), порядок findAll/forEachRow — сортировкой номеров слотов int[] без боксинга.
+ */
+public class ColumnarTariffRepository implements TariffRepository {
+    private static final int PRICE_SCALE = 10_000;
+    private static final int DISCOUNT_SCALE = 100;
+    private static final byte DEAD = -1;
+    private static final TariffType[] TYPES = TariffType.values();
+
+    private long[] ids = new long[16];
+    private int[] price = new int[16];
+    private short[] discount = new short[16];
+    private byte[] type = new byte[16];
+    private int[] city = new int[16];
+
+    /** Занятые слоты (живые + надгробия) и живые строки. */
+    private int slots, live;
+    private long seq = 1;
+
+    private final List<String> cities = new ArrayList<>();
+    private final Map<String, Integer> cityIds = new HashMap<>();
+    private final LongIntMap slotById = new LongIntMap();
+
+    // ================== Реализация TariffRepository ==================
+
+    @Override
+    public synchronized List<Tariff> findAll() {
+        int[] order = sortedSlots();
+        List<Tariff> res = new ArrayList<>(order.length);
+        for (int s : order) res.add(toTariff(s));
+        return res;
+    }
+
+    @Override
+    public synchronized Tariff add(Tariff t) {
+        long id = seq++;
+        int s = append(id, t);
+        return toTariff(s);
+    }
+
+    @Override
+    public synchronized List<Tariff> addAll(Collection<Tariff> items) {
+        List<Tariff> res = new ArrayList<>(items.size());
+        for (Tariff t : items) res.add(add(t));
+        return res;
+    }
+
+    @Override
+    public synchronized boolean update(Tariff t) {
+        if (t.getId() == null) throw new IllegalArgumentException("id is null");
+        int s = slotById.get(t.getId());
+        if (s < 0) return false;
+        write(s, t);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean delete(long id) {
+        int s = slotById.remove(id);
+        if (s < 0) return false;
+        type[s] = DEAD;
+        ids[s] = 0;
+        live--;
+        if (slots - live > 1024 && slots - live > live) compact();
+        return true;
+    }
+
+    @Override
+    public synchronized void deleteAll() {
+        slots = 0;
+        live = 0;
+        slotById.clear();
+        cities.clear();
+        cityIds.clear();
+    }
+
+    @Override
+    public synchronized Optional<Tariff> findById(long id) {
+        int s = slotById.get(id);
+        return s < 0 ? Optional.empty() : Optional.of(toTariff(s));
+    }
+
+    @Override
+    public synchronized long count(TariffFilter filter) {
+        if (filter == null || filter.isAll()) return live;
+        Query q = new Query(filter);
+        long n = 0;
+        for (int s = 0; s < slots; s++) {
+            if (q.matches(s)) n++;
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized int scalePrices(double factor, TariffFilter filter) {
+        Query q = new Query(filter);
+        // проверяем все новые цены до изменения — «всё или ничего»
+        int n = 0;
+        for (int s = 0; s < slots; s++) {
+            if (!q.matches(s)) continue;
+            long cents = Math.round((double) price[s] / PRICE_SCALE * factor * 100.0);
+            if (cents < 1 || cents > 100_000) {
+                throw new TariffException("Цена должна быть 0.01..1 000.00 (после изменения: " + cents / 100.0 + ")");
+            }
+            n++;
+        }
+        for (int s = 0; s < slots; s++) {
+            if (!q.matches(s)) continue;
+            long cents = Math.round((double) price[s] / PRICE_SCALE * factor * 100.0);
+            price[s] = (int) (cents * (PRICE_SCALE / 100));
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized void forEachRow(TariffRowVisitor visitor) {
+        for (int s : sortedSlots()) visit(s, visitor);
+    }
+
+    public synchronized int size() { return live; }
+
+    // ================== слоты ==================
+
+    private int append(long id, Tariff t) {
+        if (slots == ids.length) grow();
+        int s = slots++;
+        ids[s] = id;
+        write(s, t);
+        slotById.put(id, s);
+        live++;
+        return s;
+    }
+
+    private void write(int s, Tariff t) {
+        double disc = t.getType() == TariffType.PRIVILEGED ? t.getDiscountPercent() : 0.0;
+        price[s] = (int) Math.round(t.getPricePerMinute() * PRICE_SCALE);
+        discount[s] = (short) Math.round(disc * DISCOUNT_SCALE);
+        type[s] = (byte) t.getType().ordinal();
+        city[s] = cityId(t.getCity());
+    }
+
+    private int cityId(String name) {
+        Integer id = cityIds.get(name);
+        if (id == null) {
+            id = cities.size();
+            cities.add(name);
+            cityIds.put(name, id);
+        }
+        return id;
+    }
+
+    private Tariff toTariff(int s) {
+        return new Tariff(ids[s], cities.get(city[s]), TYPES[type[s]],
+                (double) price[s] / PRICE_SCALE, (double) discount[s] / DISCOUNT_SCALE);
+    }
+
+    private void visit(int s, TariffRowVisitor v) {
+        v.row(ids[s], cities.get(city[s]), TYPES[type[s]],
+                (double) price[s] / PRICE_SCALE, (double) discount[s] / DISCOUNT_SCALE);
+    }
+
+    /** Фильтр, разложенный по столбцам: условия на город вычислены один раз на словарь. */
+    private final class Query {
+        private final boolean all;
+        private final int typeOrdinal;
+        /** null — город не проверяется. */
+        private final boolean[] cityOk;
+        private final Double min, max;
+
+        Query(TariffFilter f) {
+            all = f == null || f.isAll();
+            typeOrdinal = all || f.getType() == null ? -1 : f.getType().ordinal();
+            min = all ? null : f.getMinPrice();
+            max = all ? null : f.getMaxPrice();
+            if (all || f.getCity() == null && f.getCityKey() == null && f.getCityLike() == null) {
+                cityOk = null;
+            } else {
+                // остальные условия — общей проверкой фильтра, на одном тарифе-образце на город
+                TariffFilter byCity = TariffFilter.all().withCity(f.getCity()).withCityKey(f.getCityKey());
+                if (f.getCityLike() != null) byCity = byCity.withCityLike(f.getCityLike());
+                cityOk = new boolean[cities.size()];
+                for (int c = 0; c < cityOk.length; c++) {
+                    cityOk[c] = byCity.matches(new Tariff(cities.get(c), TariffType.REGULAR, 0, 0));
+                }
+            }
+        }
+
+        boolean matches(int s) {
+            if (type[s] == DEAD) return false;
+            if (all) return true;
+            if (typeOrdinal >= 0 && type[s] != typeOrdinal) return false;
+            if (cityOk != null && !cityOk[city[s]]) return false;
+            double p = (double) price[s] / PRICE_SCALE;
+            if (min != null && p < min) return false;
+            return max == null || p <= max;
+        }
+    }
+
+    /** Живые слоты в порядке NATURAL_ORDER (город, тип по имени, цена, id). */
+    private int[] sortedSlots() {
+        // ранги городов: сортируем словарь один раз, а не сравниваем строки на каждой паре
+        int[] byName = new int[cities.size()];
+        for (int i = 0; i < byName.length; i++) byName[i] = i;
+        sort(byName, (a, b) -> cities.get(a).compareTo(cities.get(b)));
+        int[] rank = new int[byName.length];
+        for (int i = 0; i < byName.length; i++) rank[byName[i]] = i;
+
+        int[] typeRank = new int[TYPES.length];
+        TariffType[] byTypeName = TYPES.clone();
+        Arrays.sort(byTypeName, Comparator.comparing(TariffType::name));
+        for (int i = 0; i < byTypeName.length; i++) typeRank[byTypeName[i].ordinal()] = i;
+
+        int[] order = new int[live];
+        int n = 0;
+        for (int s = 0; s < slots; s++) if (type[s] != DEAD) order[n++] = s;
+        sort(order, (a, b) -> {
+            int c = Integer.compare(rank[city[a]], rank[city[b]]);
+            if (c != 0) return c;
+            c = Integer.compare(typeRank[type[a]], typeRank[type[b]]);
+            if (c != 0) return c;
+            c = Integer.compare(price[a], price[b]);
+            return c != 0 ? c : Long.compare(ids[a], ids[b]);
+        });
+        return order;
+    }
+
+    private interface IntComparator {
+        int compare(int a, int b);
+    }
+
+    /** Сортировка слиянием номеров слотов: int[] без Integer[] и боксинга (ещё один int[] под буфер). */
+    private static void sort(int[] a, IntComparator cmp) {
+        int[] src = a, dst = new int[a.length];
+        for (int width = 1; width < a.length; width *= 2) {
+            for (int lo = 0; lo < a.length; lo += 2 * width) {
+                int mid = Math.min(lo + width, a.length), hi = Math.min(lo + 2 * width, a.length);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) dst[k++] = cmp.compare(src[i], src[j]) <= 0 ? src[i++] : src[j++];
+                while (i < mid) dst[k++] = src[i++];
+                while (j < hi) dst[k++] = src[j++];
+            }
+            int[] t = src; src = dst; dst = t;
+        }
+        if (src != a) System.arraycopy(src, 0, a, 0, a.length);
+    }
+
+    private void grow() {
+        int cap = ids.length * 2;
+        ids = Arrays.copyOf(ids, cap);
+        price = Arrays.copyOf(price, cap);
+        discount = Arrays.copyOf(discount, cap);
+        type = Arrays.copyOf(type, cap);
+        city = Arrays.copyOf(city, cap);
+    }
+
+    /** Уплотнение: живые слоты сдвигаются к началу, карта id → слот строится заново. */
+    private void compact() {
+        int w = 0;
+        slotById.clear();
+        for (int s = 0; s < slots; s++) {
+            if (type[s] == DEAD) continue;
+            ids[w] = ids[s];
+            price[w] = price[s];
+            discount[w] = discount[s];
+            type[w] = type[s];
+            city[w] = city[s];
+            slotById.put(ids[w], w);
+            w++;
+        }
+        slots = w;
+    }
+
+    /**
+     * Открытая адресация long → int (линейное пробирование, удаление со сдвигом).
+     * 0 в keys — пустая ячейка, поэтому ключи только положительные (id из seq начинаются с 1):
+     * get/remove для key &lt;= 0 ничего не находят, put такой ключ не принимает.
+     */
+    private static final class LongIntMap {
+        private long[] keys = new long[32];
+        private int[] vals = new int[32];
+        private int size;
+
+        int get(long key) {
+            if (key <= 0) return -1;
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key) return vals[i];
+                if (keys[i] == 0) return -1;
+            }
+        }
+
+        void put(long key, int val) {
+            if (key <= 0) throw new IllegalArgumentException("id must be positive: " + key);
+            if ((size + 1) * 2 > keys.length) rehash(keys.length * 2);
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != 0 && keys[i] != key) i = (i + 1) & mask;
+            if (keys[i] == 0) size++;
+            keys[i] = key;
+            vals[i] = val;
+        }
+
+        int remove(long key) {
+            if (key <= 0) return -1;
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != key) {
+                if (keys[i] == 0) return -1;
+                i = (i + 1) & mask;
+            }
+            int val = vals[i];
+            // сдвигаем следующие элементы цепочки, чтобы не рвать пробирование
+            int gap = i;
+            for (int j = (gap + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    vals[gap] = vals[j];
+                    gap = j;
+                }
+            }
+            keys[gap] = 0;
+            size--;
+            return val;
+        }
+
+        void clear() {
+            Arrays.fill(keys, 0);
+            size = 0;
+        }
+
+        private void rehash(int cap) {
+            long[] oldKeys = keys;
+            int[] oldVals = vals;
+            keys = new long[cap];
+            vals = new int[cap];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) put(oldKeys[i], oldVals[i]);
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package atc.data;
 
 import atc.model.Tariff;
+import atc.service.TariffException;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
@@ -12,7 +13,9 @@ public class InMemoryTariffRepository implements TariffRepository {
     @Override
     public synchronized List<Tariff> findAll() {
         // возвращаем копию, чтобы снаружи не ломали внутренний список
-        return new ArrayList<>(store);
+        List<Tariff> res = new ArrayList<>(store);
+        res.sort(NATURAL_ORDER);
+        return res;
     }
 
     @Override
@@ -24,20 +27,51 @@ public class InMemoryTariffRepository implements TariffRepository {
     }
 
     @Override
-    public synchronized void update(Tariff t) {
+    public synchronized List<Tariff> addAll(Collection<Tariff> items) {
+        List<Tariff> res = new ArrayList<>(items.size());
+        for (Tariff t : items) res.add(add(t));
+        return res;
+    }
+
+    @Override
+    public synchronized boolean update(Tariff t) {
         if (t.getId() == null) throw new IllegalArgumentException("id is null");
         for (int i = 0; i < store.size(); i++) {
             if (Objects.equals(store.get(i).getId(), t.getId())) {
                 store.set(i, t);
-                return;
+                return true;
             }
         }
-        throw new NoSuchElementException("not found id=" + t.getId());
+        return false;
+    }
+
+    @Override
+    public synchronized boolean delete(long id) {
+        return store.removeIf(x -> Objects.equals(x.getId(), id));
     }
 
     @Override
-    public synchronized void delete(long id) {
-        store.removeIf(x -> Objects.equals(x.getId(), id));
+    public synchronized int scalePrices(double factor, TariffFilter filter) {
+        if (filter == null) filter = TariffFilter.all(); // null — все строки, как у остальных хранилищ
+        // сначала считаем и проверяем все новые цены, потом применяем — «всё или ничего»
+        double[] prices = new double[store.size()];
+        int n = 0;
+        for (int i = 0; i < store.size(); i++) {
+            Tariff t = store.get(i);
+            if (!filter.matches(t)) continue;
+            double p = Math.round(t.getPricePerMinute() * factor * 100.0) / 100.0;
+            if (p < 0.01 || p > 1_000.00) {
+                throw new TariffException("Цена должна быть 0.01..1 000.00 (после изменения: " + p + ")");
+            }
+            prices[i] = p;
+            n++;
+        }
+        for (int i = 0; i < store.size(); i++) {
+            Tariff t = store.get(i);
+            if (!filter.matches(t)) continue;
+            store.set(i, new Tariff(t.getId(), t.getCity(), t.getType(), prices[i], t.getDiscountPercent()));
+        }
+        return n;
     }
 
     @Override
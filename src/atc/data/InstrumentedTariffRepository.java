@@ -0,0 +1,99 @@
+package atc.data;
+
+import atc.metrics.Metrics;
+import atc.model.Tariff;
+import atc.service.ProgressMonitor;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Обёртка над любым TariffRepository: каждый вызов считается в Metrics
+ * как «repo.&lt;метод&gt;» (число, ошибки, задержки). Сама ничего не меняет —
+ * переопределённые в хранилище методы (SQL-страницы, курсоры) вызываются как есть.
+ */
+public class InstrumentedTariffRepository implements TariffRepository {
+    private final TariffRepository repo;
+    private final Metrics metrics;
+
+    public InstrumentedTariffRepository(TariffRepository repo, Metrics metrics) {
+        this.repo = repo;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public List<Tariff> findAll() {
+        return metrics.time("repo.findAll", repo::findAll);
+    }
+
+    @Override
+    public Tariff add(Tariff t) {
+        return metrics.time("repo.add", () -> repo.add(t));
+    }
+
+    @Override
+    public List<Tariff> addAll(Collection<Tariff> items) {
+        return metrics.time("repo.addAll", () -> repo.addAll(items));
+    }
+
+    @Override
+    public boolean update(Tariff t) {
+        return metrics.time("repo.update", () -> repo.update(t));
+    }
+
+    @Override
+    public boolean delete(long id) {
+        return metrics.time("repo.delete", () -> repo.delete(id));
+    }
+
+    @Override
+    public int scalePrices(double factor, TariffFilter filter) {
+        return metrics.time("repo.scalePrices", () -> repo.scalePrices(factor, filter));
+    }
+
+    @Override
+    public int scalePrices(double factor, TariffFilter filter, ProgressMonitor monitor) {
+        return metrics.time("repo.scalePrices", () -> repo.scalePrices(factor, filter, monitor));
+    }
+
+    @Override
+    public int deleteByIds(Collection<Long> ids) {
+        return metrics.time("repo.deleteByIds", () -> repo.deleteByIds(ids));
+    }
+
+    @Override
+    public void deleteAll() {
+        metrics.time("repo.deleteAll", repo::deleteAll);
+    }
+
+    @Override
+    public Optional<Tariff> findById(long id) {
+        return metrics.time("repo.findById", () -> repo.findById(id));
+    }
+
+    @Override
+    public long count(TariffFilter filter) {
+        return metrics.time("repo.count", () -> repo.count(filter));
+    }
+
+    @Override
+    public List<Tariff> findPage(TariffFilter filter, TariffSort sort, Tariff after, int limit) {
+        return metrics.time("repo.findPage", () -> repo.findPage(filter, sort, after, limit));
+    }
+
+    @Override
+    public List<Tariff> findPageAt(TariffFilter filter, TariffSort sort, long offset, int limit) {
+        return metrics.time("repo.findPageAt", () -> repo.findPageAt(filter, sort, offset, limit));
+    }
+
+    @Override
+    public void forEachRow(TariffRowVisitor visitor) {
+        metrics.time("repo.forEachRow", () -> repo.forEachRow(visitor));
+    }
+
+    @Override
+    public void close() {
+        repo.close();
+    }
+}
@@ -0,0 +1,154 @@
+package atc.data;
+
+import atc.service.TariffException;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Режим хранения SQLite: журнал, synchronous, mmap, кэш страниц, busy_timeout
+ * и число соединений только для чтения у SqliteTariffRepository.
+ * Неизменяемый; with-методы возвращают копию (как TariffFilter).
+ *
+ * defaults() — прежнее поведение: журнал отката, synchronous=FULL, одно соединение на всё.
+ * wal() — WAL + NORMAL: коммит пишет только в журнал без fsync базы, читатели
+ * не ждут писателя, чтение идёт через отображённый в память файл. Последние коммиты
+ * при сбое питания могут пропасть, поэтому wal() — по явному выбору (atc.sql.profile=wal):
+ * он выгоден, когда чтение идёт из БД параллельно с записью: страницы, COUNT и экспорт окна
+ * (WriteBehindTariffRepository отдаёт их SqliteTariffRepository), пакетный режим, несколько процессов.
+ */
+public final class SqliteStorageProfile {
+
+    public enum JournalMode { DELETE, TRUNCATE, PERSIST, MEMORY, WAL, OFF }
+
+    public enum Synchronous { OFF, NORMAL, FULL, EXTRA }
+
+    private static final SqliteStorageProfile DEFAULTS =
+            new SqliteStorageProfile(JournalMode.DELETE, Synchronous.FULL, 0, 0, 3000, 0);
+
+    private static final SqliteStorageProfile WAL = new SqliteStorageProfile(
+            JournalMode.WAL, Synchronous.NORMAL, 256L << 20, 64 << 10, 5000,
+            Math.min(4, Math.max(2, Runtime.getRuntime().availableProcessors())));
+
+    private final JournalMode journalMode;
+    private final Synchronous synchronous;
+    /** Байт файла, отображаемых в память; 0 — без mmap. */
+    private final long mmapSize;
+    /** Кэш страниц на соединение в КиБ; 0 — значение SQLite по умолчанию. */
+    private final int cacheSizeKib;
+    private final int busyTimeoutMillis;
+    /** Соединений только для чтения; 0 — всё через соединение записи. */
+    private final int readers;
+
+    private SqliteStorageProfile(JournalMode journalMode, Synchronous synchronous, long mmapSize,
+                                 int cacheSizeKib, int busyTimeoutMillis, int readers) {
+        if (mmapSize < 0 || cacheSizeKib < 0 || busyTimeoutMillis < 0 || readers < 0) {
+            throw new IllegalArgumentException("параметры режима хранения не могут быть отрицательными");
+        }
+        this.journalMode = Objects.requireNonNull(journalMode);
+        this.synchronous = Objects.requireNonNull(synchronous);
+        this.mmapSize = mmapSize;
+        this.cacheSizeKib = cacheSizeKib;
+        this.busyTimeoutMillis = busyTimeoutMillis;
+        this.readers = readers;
+    }
+
+    public static SqliteStorageProfile defaults() { return DEFAULTS; }
+
+    public static SqliteStorageProfile wal() { return WAL; }
+
+    /**
+     * Профиль из системных свойств: atc.sql.profile (default | wal, по умолчанию default),
+     * поверх него — atc.sql.journal, atc.sql.synchronous, atc.sql.mmapSize (байт),
+     * atc.sql.cacheKib, atc.sql.busyTimeout (мс), atc.sql.readers.
+     */
+    public static SqliteStorageProfile fromSystemProperties() {
+        String name = System.getProperty("atc.sql.profile", "default").trim().toLowerCase(Locale.ROOT);
+        SqliteStorageProfile p = switch (name) {
+            case "wal" -> WAL;
+            case "default" -> DEFAULTS;
+            default -> throw new TariffException("Неизвестный режим хранения atc.sql.profile: " + name);
+        };
+        try {
+            String journal = System.getProperty("atc.sql.journal");
+            if (journal != null) p = p.withJournalMode(JournalMode.valueOf(journal.trim().toUpperCase(Locale.ROOT)));
+            String sync = System.getProperty("atc.sql.synchronous");
+            if (sync != null) p = p.withSynchronous(Synchronous.valueOf(sync.trim().toUpperCase(Locale.ROOT)));
+            p = p.withMmapSize(Long.getLong("atc.sql.mmapSize", p.mmapSize))
+                 .withCacheSizeKib(Integer.getInteger("atc.sql.cacheKib", p.cacheSizeKib))
+                 .withBusyTimeoutMillis(Integer.getInteger("atc.sql.busyTimeout", p.busyTimeoutMillis))
+                 .withReaders(Integer.getInteger("atc.sql.readers", p.readers));
+        } catch (IllegalArgumentException e) {
+            throw new TariffException("Неверный параметр режима хранения: " + e.getMessage());
+        }
+        return p;
+    }
+
+    public SqliteStorageProfile withJournalMode(JournalMode mode) {
+        return new SqliteStorageProfile(mode, synchronous, mmapSize, cacheSizeKib, busyTimeoutMillis, readers);
+    }
+
+    public SqliteStorageProfile withSynchronous(Synchronous level) {
+        return new SqliteStorageProfile(journalMode, level, mmapSize, cacheSizeKib, busyTimeoutMillis, readers);
+    }
+
+    public SqliteStorageProfile withMmapSize(long bytes) {
+        return new SqliteStorageProfile(journalMode, synchronous, bytes, cacheSizeKib, busyTimeoutMillis, readers);
+    }
+
+    public SqliteStorageProfile withCacheSizeKib(int kib) {
+        return new SqliteStorageProfile(journalMode, synchronous, mmapSize, kib, busyTimeoutMillis, readers);
+    }
+
+    public SqliteStorageProfile withBusyTimeoutMillis(int millis) {
+        return new SqliteStorageProfile(journalMode, synchronous, mmapSize, cacheSizeKib, millis, readers);
+    }
+
+    public SqliteStorageProfile withReaders(int count) {
+        return new SqliteStorageProfile(journalMode, synchronous, mmapSize, cacheSizeKib, busyTimeoutMillis, count);
+    }
+
+    public JournalMode getJournalMode() { return journalMode; }
+    public Synchronous getSynchronous() { return synchronous; }
+    public long getMmapSize() { return mmapSize; }
+    public int getCacheSizeKib() { return cacheSizeKib; }
+    public int getBusyTimeoutMillis() { return busyTimeoutMillis; }
+    public int getReaders() { return readers; }
+
+    /**
+     * PRAGMA для нового соединения. Режим журнала хранится в самом файле БД,
+     * его выставляет соединение записи; читатель включает query_only.
+     */
+    void apply(Statement st, boolean writer) throws SQLException {
+        st.execute("PRAGMA busy_timeout = " + busyTimeoutMillis);
+        if (writer) {
+            st.execute("PRAGMA journal_mode = " + journalMode);
+            st.execute("PRAGMA synchronous = " + synchronous);
+        } else {
+            st.execute("PRAGMA query_only = ON");
+        }
+        st.execute("PRAGMA mmap_size = " + mmapSize);
+        if (cacheSizeKib > 0) st.execute("PRAGMA cache_size = -" + cacheSizeKib); // минус — размер в КиБ
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SqliteStorageProfile p)) return false;
+        return journalMode == p.journalMode && synchronous == p.synchronous && mmapSize == p.mmapSize
+                && cacheSizeKib == p.cacheSizeKib && busyTimeoutMillis == p.busyTimeoutMillis && readers == p.readers;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(journalMode, synchronous, mmapSize, cacheSizeKib, busyTimeoutMillis, readers);
+    }
+
+    @Override
+    public String toString() {
+        return "journal=" + journalMode + ", synchronous=" + synchronous + ", mmap=" + mmapSize
+                + ", cacheKib=" + cacheSizeKib + ", busyTimeout=" + busyTimeoutMillis + ", readers=" + readers;
+    }
+}
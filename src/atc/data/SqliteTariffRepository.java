@@ -1,14 +1,16 @@
 package atc.data;
 
+import atc.metrics.SlowSqlLog;
 import atc.model.Tariff;
 import atc.model.TariffType;
+import atc.service.ProgressMonitor;
 import atc.service.TariffException;
 
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Репозиторий тарифов на SQLite.
@@ -19,13 +21,63 @@ import java.util.Optional;
  *  type     TEXT NOT NULL ('REGULAR' / 'PRIVILEGED')
  *  price    REAL NOT NULL (0.01..1000.00)
  *  discount REAL NOT NULL (0..100), для REGULAR всегда 0
+ *  city_key TEXT — город в нижнем регистре (TariffFilter.cityKey) для поиска по подстроке:
+ *           LIKE/lower() в SQLite без ICU не знают кириллицы
  *
  * UNIQUE по "сырым" полям (город+тип+цена+скидка).
  * Дополнительная логика проверки дублей остаётся в TariffManager.
+ *
+ * Репозиторий держит долгоживущее соединение записи и кэш подготовленных
+ * запросов к нему; закрывается через close() при завершении приложения.
+ * Режим хранения (журнал, synchronous, mmap, кэш) задаёт SqliteStorageProfile.
+ * Если в нём есть читатели, чтение (findAll, страницы, count, экспорт) идёт через
+ * пул соединений только для чтения и не ждёт записи; в WAL — и блокировки файла.
+ * Запросы дольше порога getSlowSqlLog() пишутся в журнал вместе с параметрами.
  */
 public class SqliteTariffRepository implements TariffRepository {
 
+    private static final String SQL_FIND_ALL =
+            "SELECT id, city, type, price, discount FROM tariffs ORDER BY city, type, price, id";
+    private static final String SQL_FIND_BY_ID =
+            "SELECT id, city, type, price, discount FROM tariffs WHERE id=?";
+    private static final String SQL_INSERT =
+            "INSERT INTO tariffs(city, type, price, discount, city_key) VALUES (?,?,?,?,?)";
+    private static final String SQL_INSERT_OR_IGNORE =
+            "INSERT OR IGNORE INTO tariffs(city, type, price, discount, city_key) VALUES (?,?,?,?,?)";
+    private static final String SQL_LAST_ID =
+            "SELECT last_insert_rowid()";
+    private static final String SQL_UPDATE =
+            "UPDATE tariffs SET city=?, type=?, price=?, discount=?, city_key=? WHERE id=?";
+    private static final String SQL_DELETE =
+            "DELETE FROM tariffs WHERE id=?";
+    private static final String SQL_INSERT_WITH_ID =
+            "INSERT INTO tariffs(id, city, type, price, discount, city_key) VALUES (?,?,?,?,?,?)";
+
     private final String url;
+    private final SqliteStorageProfile profile;
+
+    /** Соединение записи; открывается лениво и живёт до close(). */
+    private Connection connection;
+    /** Кэш PreparedStatement по тексту SQL (привязан к connection). */
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    /** Чтение через соединение записи — когда читателей нет (под this). */
+    private final Session writerSession = new Session() {
+        @Override
+        public Connection connection() throws SQLException { return conn(); }
+
+        @Override
+        public PreparedStatement prepared(String sql) throws SQLException {
+            return SqliteTariffRepository.this.prepared(sql);
+        }
+    };
+    /** Свободные читатели; открываются лениво, не больше profile.getReaders(). После close() — заново. */
+    private final BlockingQueue<ReadSession> idleReaders = new LinkedBlockingQueue<>();
+    private final AtomicInteger openedReaders = new AtomicInteger();
+    private volatile boolean closed;
+
+    /** Порог — системное свойство atc.sql.slowMillis или JMX (Metrics). */
+    private final SlowSqlLog slowSql = SlowSqlLog.fromSystemProperties();
 
     static {
         // Для совместимости со старыми JDK / драйверами
@@ -36,20 +88,166 @@ public class SqliteTariffRepository implements TariffRepository {
     }
 
     public SqliteTariffRepository(String url) {
+        this(url, SqliteStorageProfile.defaults());
+    }
+
+    public SqliteTariffRepository(String url, SqliteStorageProfile profile) {
         this.url = url;
+        // у БД в памяти своя копия на каждое соединение — читатели её бы не увидели
+        this.profile = isInMemory(url) ? profile.withReaders(0) : profile;
         initSchema();
     }
 
+    public SlowSqlLog getSlowSqlLog() { return slowSql; }
+
+    public SqliteStorageProfile getProfile() { return profile; }
+
     private Connection conn() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            statements.clear();
+            Connection c = DriverManager.getConnection(url);
+            try (Statement st = c.createStatement()) {
+                st.execute("PRAGMA foreign_keys = ON");
+                profile.apply(st, true);
+            }
+            connection = c;
+            closed = false;
+        }
+        return connection;
+    }
+
+    private static boolean isInMemory(String url) {
+        return url.contains(":memory:") || url.contains("mode=memory");
+    }
+
+    // ================== Читатели ==================
+
+    /** Соединение с кэшем подготовленных запросов — для запросов чтения. */
+    private interface Session {
+        Connection connection() throws SQLException;
+
+        PreparedStatement prepared(String sql) throws SQLException;
+    }
+
+    /** Соединение только для чтения (query_only) из пула; одновременно им пользуется один поток. */
+    private static final class ReadSession implements Session {
+        private final Connection conn;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        ReadSession(Connection conn) { this.conn = conn; }
+
+        @Override
+        public Connection connection() { return conn; }
+
+        @Override
+        public PreparedStatement prepared(String sql) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null || ps.isClosed()) {
+                ps = conn.prepareStatement(sql);
+                statements.put(sql, ps);
+            }
+            return ps;
+        }
+
+        void close() {
+            try {
+                conn.close(); // закрывает и подготовленные запросы
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlRead<T> {
+        T run(Session s) throws SQLException;
+    }
+
+    /** Запрос чтения: через свободного читателя из пула или, без пула, через соединение записи. */
+    private <T> T read(SqlRead<T> body) throws SQLException {
+        if (profile.getReaders() == 0) {
+            synchronized (this) {
+                return body.run(writerSession);
+            }
+        }
+        ReadSession r = acquireReader();
+        try {
+            return body.run(r);
+        } finally {
+            releaseReader(r);
+        }
+    }
+
+    private ReadSession acquireReader() throws SQLException {
+        ReadSession r = idleReaders.poll();
+        if (r != null) return r;
+        if (openedReaders.incrementAndGet() <= profile.getReaders()) {
+            try {
+                return openReader();
+            } catch (SQLException | RuntimeException e) {
+                openedReaders.decrementAndGet();
+                throw e;
+            }
+        }
+        openedReaders.decrementAndGet();
+        try {
+            return idleReaders.take(); // все читатели заняты — ждём свободного
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("чтение прервано");
+        }
+    }
+
+    private ReadSession openReader() throws SQLException {
+        synchronized (this) {
+            conn(); // схему и режим журнала выставляет соединение записи
+        }
         Connection c = DriverManager.getConnection(url);
         try (Statement st = c.createStatement()) {
-            st.execute("PRAGMA foreign_keys = ON");
+            profile.apply(st, false);
+        } catch (SQLException e) {
+            c.close();
+            throw e;
+        }
+        return new ReadSession(c);
+    }
+
+    private void releaseReader(ReadSession r) {
+        if (closed) {
+            r.close();
+            openedReaders.decrementAndGet();
+        } else {
+            idleReaders.add(r);
         }
-        return c;
     }
 
+    /** Подготовленный запрос из кэша (готовится один раз на соединение). */
+    private PreparedStatement prepared(String sql) throws SQLException {
+        Connection c = conn();
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null || ps.isClosed()) {
+            ps = sql.equals(SQL_INSERT)
+                    ? c.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                    : c.prepareStatement(sql);
+            statements.put(sql, ps);
+        }
+        return ps;
+    }
+
+    /**
+     * Индексы под порядки TariffSort: по ним идут ORDER BY и постраничное чтение.
+     * Выражение в tariffs_final должно совпадать с orderColumns(FINAL_PRICE) дословно.
+     */
+    private static final String[] SORT_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS tariffs_natural_order ON tariffs(city, type, price, id)",
+            "CREATE INDEX IF NOT EXISTS tariffs_type_order ON tariffs(type, city, price, id)",
+            "CREATE INDEX IF NOT EXISTS tariffs_city_key ON tariffs(city_key)",
+            "CREATE INDEX IF NOT EXISTS tariffs_price ON tariffs(price)",
+            "CREATE INDEX IF NOT EXISTS tariffs_discount ON tariffs(discount)",
+            "CREATE INDEX IF NOT EXISTS tariffs_final ON tariffs(price * (100 - discount) / 100)"
+    };
+
     /** Создаём таблицу, если её ещё нет. БЕЗ выражений в UNIQUE. */
-    private void initSchema() {
+    private synchronized void initSchema() {
         String sql = """
                 CREATE TABLE IF NOT EXISTS tariffs(
                   id       INTEGER PRIMARY KEY AUTOINCREMENT,
@@ -57,112 +255,307 @@ public class SqliteTariffRepository implements TariffRepository {
                   type     TEXT NOT NULL CHECK (type IN ('REGULAR','PRIVILEGED')),
                   price    REAL NOT NULL CHECK (price BETWEEN 0.01 AND 1000.00),
                   discount REAL NOT NULL DEFAULT 0 CHECK (discount BETWEEN 0 AND 100),
+                  city_key TEXT,
                   UNIQUE(city, type, price, discount)
                 );
                 """;
-        try (Connection c = conn();
-             Statement st = c.createStatement()) {
+        try (Statement st = conn().createStatement()) {
             st.execute(sql);
+            migrateCityKey(st);
+            for (String index : SORT_INDEXES) st.execute(index);
         } catch (SQLException e) {
             throw new TariffException("Ошибка инициализации БД: " + e.getMessage());
         }
     }
 
+    /** БД прежних версий: добавить city_key и заполнить его (lower() в SQLite не годится). */
+    private void migrateCityKey(Statement st) throws SQLException {
+        boolean present = false;
+        try (ResultSet rs = st.executeQuery("PRAGMA table_info(tariffs)")) {
+            while (rs.next()) {
+                if ("city_key".equalsIgnoreCase(rs.getString("name"))) present = true;
+            }
+        }
+        if (!present) st.execute("ALTER TABLE tariffs ADD COLUMN city_key TEXT");
+
+        Map<Long, String> missing = new HashMap<>();
+        try (ResultSet rs = st.executeQuery("SELECT id, city FROM tariffs WHERE city_key IS NULL")) {
+            while (rs.next()) missing.put(rs.getLong(1), rs.getString(2));
+        }
+        if (missing.isEmpty()) return;
+
+        Connection c = conn();
+        c.setAutoCommit(false);
+        try (PreparedStatement ps = c.prepareStatement("UPDATE tariffs SET city_key=? WHERE id=?")) {
+            for (Map.Entry<Long, String> e : missing.entrySet()) {
+                ps.setString(1, TariffFilter.cityKey(e.getValue()));
+                ps.setLong(2, e.getKey());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            c.commit();
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(true);
+        }
+    }
+
     // ================== Реализация TariffRepository ==================
 
     @Override
     public List<Tariff> findAll() {
-        String sql = "SELECT id, city, type, price, discount FROM tariffs " +
-                "ORDER BY city, type, price, id";
-        try (Connection c = conn();
-             PreparedStatement ps = c.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-
-            List<Tariff> res = new ArrayList<>();
-            while (rs.next()) {
-                long id = rs.getLong("id");
-                String city = rs.getString("city");
-                TariffType type = TariffType.valueOf(rs.getString("type"));
-                double price = rs.getDouble("price");
-                double disc = rs.getDouble("discount");
-                res.add(new Tariff(id, city, type, price, disc));
-            }
-            return res;
+        try {
+            return read(s -> {
+                long t0 = System.nanoTime();
+                try (ResultSet rs = s.prepared(SQL_FIND_ALL).executeQuery()) {
+                    List<Tariff> res = new ArrayList<>();
+                    while (rs.next()) {
+                        res.add(readTariff(rs));
+                    }
+                    if (slowSql.isSlow(t0)) slowSql.log(t0, SQL_FIND_ALL);
+                    return res;
+                }
+            });
         } catch (SQLException | IllegalArgumentException e) {
             throw new TariffException("Ошибка чтения из БД: " + e.getMessage());
         }
     }
 
     @Override
-    public Tariff add(Tariff t) {
-        String sql = "INSERT INTO tariffs(city, type, price, discount) VALUES (?,?,?,?)";
+    public synchronized Tariff add(Tariff t) {
         double discount = (t.getType() == TariffType.PRIVILEGED) ? t.getDiscountPercent() : 0.0;
 
-        try (Connection c = conn();
-             PreparedStatement ps = c.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
+        try {
+            PreparedStatement ps = prepared(SQL_INSERT);
             ps.setString(1, normCity(t.getCity()));
             ps.setString(2, t.getType().name());
             ps.setDouble(3, t.getPricePerMinute());
             ps.setDouble(4, discount);
+            ps.setString(5, TariffFilter.cityKey(t.getCity()));
 
+            long t0 = System.nanoTime();
             ps.executeUpdate();
+            if (slowSql.isSlow(t0)) {
+                slowSql.log(t0, SQL_INSERT, t.getCity(), t.getType(), t.getPricePerMinute(), discount);
+            }
 
             try (ResultSet keys = ps.getGeneratedKeys()) {
                 Long id = null;
                 if (keys.next()) {
                     id = keys.getLong(1);
                 }
-                return new Tariff(id, t.getCity(), t.getType(), t.getPricePerMinute(), discount);
+                return new Tariff(id, normCity(t.getCity()), t.getType(), t.getPricePerMinute(), discount);
             }
         } catch (SQLException e) {
             throw mapSqlException(e);
         }
     }
 
+    /**
+     * Все строки — одним JDBC-батчем в одной транзакции (один fsync на пакет).
+     * Дубли по UNIQUE отбрасываются через INSERT OR IGNORE и возвращаются как null.
+     * id вставленных строк восстанавливаем по last_insert_rowid(): при AUTOINCREMENT
+     * внутри одной транзакции они идут подряд.
+     */
     @Override
-    public void update(Tariff t) {
+    public synchronized List<Tariff> addAll(Collection<Tariff> items) {
+        List<Tariff> res = new ArrayList<>(items.size());
+        if (items.isEmpty()) return res;
+
+        try {
+            Connection c = conn();
+            c.setAutoCommit(false);
+            try {
+                PreparedStatement ps = prepared(SQL_INSERT_OR_IGNORE);
+                for (Tariff t : items) {
+                    double discount = (t.getType() == TariffType.PRIVILEGED) ? t.getDiscountPercent() : 0.0;
+                    ps.setString(1, normCity(t.getCity()));
+                    ps.setString(2, t.getType().name());
+                    ps.setDouble(3, t.getPricePerMinute());
+                    ps.setDouble(4, discount);
+                    ps.setString(5, TariffFilter.cityKey(t.getCity()));
+                    ps.addBatch();
+                }
+                long t0 = System.nanoTime();
+                int[] counts = ps.executeBatch();
+                if (slowSql.isSlow(t0)) slowSql.log(t0, SQL_INSERT_OR_IGNORE, "пакет: " + items.size() + " строк");
+
+                int inserted = 0;
+                for (int n : counts) if (n > 0) inserted++;
+                long nextId = 0;
+                if (inserted > 0) {
+                    try (ResultSet rs = prepared(SQL_LAST_ID).executeQuery()) {
+                        rs.next();
+                        nextId = rs.getLong(1) - inserted + 1;
+                    }
+                }
+
+                int i = 0;
+                for (Tariff t : items) {
+                    if (counts[i++] > 0) {
+                        double discount = (t.getType() == TariffType.PRIVILEGED) ? t.getDiscountPercent() : 0.0;
+                        res.add(new Tariff(nextId++, normCity(t.getCity()), t.getType(), t.getPricePerMinute(), discount));
+                    } else {
+                        res.add(null);
+                    }
+                }
+                c.commit();
+                return res;
+            } catch (SQLException | RuntimeException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw mapSqlException(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean update(Tariff t) {
         if (t.getId() == null) {
             throw new IllegalArgumentException("id тарифа не задан");
         }
-        String sql = "UPDATE tariffs SET city=?, type=?, price=?, discount=? WHERE id=?";
         double discount = (t.getType() == TariffType.PRIVILEGED) ? t.getDiscountPercent() : 0.0;
 
-        try (Connection c = conn();
-             PreparedStatement ps = c.prepareStatement(sql)) {
-
+        try {
+            PreparedStatement ps = prepared(SQL_UPDATE);
             ps.setString(1, normCity(t.getCity()));
             ps.setString(2, t.getType().name());
             ps.setDouble(3, t.getPricePerMinute());
             ps.setDouble(4, discount);
-            ps.setLong(5, t.getId());
+            ps.setString(5, TariffFilter.cityKey(t.getCity()));
+            ps.setLong(6, t.getId());
 
-            int updated = ps.executeUpdate();
-            if (updated == 0) {
-                throw new TariffException("Тариф с id=" + t.getId() + " не найден");
+            long t0 = System.nanoTime();
+            int n = ps.executeUpdate();
+            if (slowSql.isSlow(t0)) {
+                slowSql.log(t0, SQL_UPDATE, t.getCity(), t.getType(), t.getPricePerMinute(), discount, t.getId());
             }
+            return n > 0;
         } catch (SQLException e) {
             throw mapSqlException(e);
         }
     }
 
     @Override
-    public void delete(long id) {
-        String sql = "DELETE FROM tariffs WHERE id=?";
-        try (Connection c = conn();
-             PreparedStatement ps = c.prepareStatement(sql)) {
+    public synchronized boolean delete(long id) {
+        try {
+            PreparedStatement ps = prepared(SQL_DELETE);
             ps.setLong(1, id);
-            ps.executeUpdate();
+            long t0 = System.nanoTime();
+            int n = ps.executeUpdate();
+            if (slowSql.isSlow(t0)) slowSql.log(t0, SQL_DELETE, id);
+            return n > 0;
         } catch (SQLException e) {
             throw new TariffException("Ошибка удаления: " + e.getMessage());
         }
     }
 
+    /**
+     * Одна транзакция: сначала MIN/MAX будущих цен (тем же round(price*?, 2), что и в UPDATE),
+     * затем один UPDATE по всем отобранным строкам. Нарушение диапазона или UNIQUE — откат.
+     */
     @Override
-    public void deleteAll() {
-        try (Connection c = conn();
-             Statement st = c.createStatement()) {
+    public int scalePrices(double factor, TariffFilter filter) {
+        return scalePrices(factor, filter, ProgressMonitor.NONE);
+    }
+
+    /** Отмена проверяется до UPDATE и перед COMMIT; отменённая транзакция откатывается. */
+    @Override
+    public synchronized int scalePrices(double factor, TariffFilter filter, ProgressMonitor monitor) {
+        List<Object> params = new ArrayList<>();
+        String where = whereClause(filter, params);
+
+        try {
+            Connection c = conn();
+            c.setAutoCommit(false);
+            try {
+                String checkSql = "SELECT MIN(round(price*?, 2)), MAX(round(price*?, 2)), COUNT(*) FROM tariffs" + where;
+                PreparedStatement check = prepared(checkSql);
+                check.setDouble(1, factor);
+                check.setDouble(2, factor);
+                bind(check, 3, params);
+                long t0 = System.nanoTime();
+                try (ResultSet rs = check.executeQuery()) {
+                    rs.next();
+                    if (slowSql.isSlow(t0)) slowSql.log(t0, checkSql, factor, factor, params);
+                    if (rs.getLong(3) == 0) {
+                        c.commit();
+                        return 0;
+                    }
+                    double min = rs.getDouble(1), max = rs.getDouble(2);
+                    if (min < 0.01 || max > 1_000.00) {
+                        throw new TariffException(String.format(Locale.ROOT,
+                                "Цена должна быть 0.01..1 000.00 (после изменения: %.2f..%.2f)", min, max));
+                    }
+                }
+                monitor.progress(1, 3);
+                monitor.checkCancelled();
+
+                String updateSql = "UPDATE tariffs SET price = round(price*?, 2)" + where;
+                PreparedStatement upd = prepared(updateSql);
+                upd.setDouble(1, factor);
+                bind(upd, 2, params);
+                t0 = System.nanoTime();
+                int n = upd.executeUpdate();
+                if (slowSql.isSlow(t0)) slowSql.log(t0, updateSql, factor, params);
+                monitor.progress(2, 3);
+                monitor.checkCancelled();
+                c.commit();
+                return n;
+            } catch (SQLException | RuntimeException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw mapSqlException(e);
+        }
+    }
+
+    /** Пакетное удаление по id одной транзакцией. */
+    @Override
+    public synchronized int deleteByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) return 0;
+        try {
+            Connection c = conn();
+            c.setAutoCommit(false);
+            try {
+                PreparedStatement ps = prepared(SQL_DELETE);
+                for (long id : ids) {
+                    ps.setLong(1, id);
+                    ps.addBatch();
+                }
+                long t0 = System.nanoTime();
+                int n = 0;
+                for (int r : ps.executeBatch()) {
+                    if (r > 0) n += r;
+                }
+                if (slowSql.isSlow(t0)) slowSql.log(t0, SQL_DELETE, "пакет: " + ids.size() + " id");
+                c.commit();
+                return n;
+            } catch (SQLException | RuntimeException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new TariffException("Ошибка удаления из БД: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void deleteAll() {
+        try (Statement st = conn().createStatement()) {
+            long t0 = System.nanoTime();
             st.executeUpdate("DELETE FROM tariffs");
+            if (slowSql.isSlow(t0)) slowSql.log(t0, "DELETE FROM tariffs");
         } catch (SQLException e) {
             throw new TariffException("Ошибка очистки БД: " + e.getMessage());
         }
@@ -170,28 +563,339 @@ public class SqliteTariffRepository implements TariffRepository {
 
     @Override
     public Optional<Tariff> findById(long id) {
-        String sql = "SELECT id, city, type, price, discount FROM tariffs WHERE id=?";
-        try (Connection c = conn();
-             PreparedStatement ps = c.prepareStatement(sql)) {
-
-            ps.setLong(1, id);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) return Optional.empty();
-                long tid = rs.getLong("id");
-                String city = rs.getString("city");
-                TariffType type = TariffType.valueOf(rs.getString("type"));
-                double price = rs.getDouble("price");
-                double disc = rs.getDouble("discount");
-                return Optional.of(new Tariff(tid, city, type, price, disc));
-            }
+        try {
+            return read(s -> {
+                PreparedStatement ps = s.prepared(SQL_FIND_BY_ID);
+                ps.setLong(1, id);
+                long t0 = System.nanoTime();
+                try (ResultSet rs = ps.executeQuery()) {
+                    boolean found = rs.next();
+                    if (slowSql.isSlow(t0)) slowSql.log(t0, SQL_FIND_BY_ID, id);
+                    return found ? Optional.of(readTariff(rs)) : Optional.empty();
+                }
+            });
         } catch (SQLException | IllegalArgumentException e) {
             throw new TariffException("Ошибка поиска тарифа: " + e.getMessage());
         }
     }
 
+    @Override
+    public long count(TariffFilter filter) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT COUNT(*) FROM tariffs" + whereClause(filter, params);
+        try {
+            return read(s -> {
+                PreparedStatement ps = s.prepared(sql);
+                bind(ps, 1, params);
+                long t0 = System.nanoTime();
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    if (slowSql.isSlow(t0)) slowSql.log(t0, sql, params.toArray());
+                    return rs.getLong(1);
+                }
+            });
+        } catch (SQLException e) {
+            throw new TariffException("Ошибка чтения из БД: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Keyset: (ключи порядка…, id) &gt; (значения строки after) — по индексу порядка, без OFFSET.
+     * Для убывающего порядка сравнение обратное, индекс читается с конца.
+     */
+    @Override
+    public List<Tariff> findPage(TariffFilter filter, TariffSort sort, Tariff after, int limit) {
+        List<Object> params = new ArrayList<>();
+        List<String> conds = conditions(filter, params);
+        if (after != null) {
+            conds.add("(" + orderColumns(sort.getKey()) + ") " + (sort.isAscending() ? ">" : "<") +
+                    " (" + keyPlaceholders(sort.getKey()) + ")");
+            keyValues(sort.getKey(), after, params);
+        }
+        String sql = "SELECT id, city, type, price, discount FROM tariffs" + where(conds) +
+                orderBy(sort) + " LIMIT ?";
+        params.add(limit);
+        return query(sql, params);
+    }
+
+    @Override
+    public List<Tariff> findPageAt(TariffFilter filter, TariffSort sort, long offset, int limit) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT id, city, type, price, discount FROM tariffs" + whereClause(filter, params) +
+                orderBy(sort) + " LIMIT ? OFFSET ?";
+        params.add(limit);
+        params.add(offset);
+        return query(sql, params);
+    }
+
+    /** Колонки порядка; id в конце делает его полным. */
+    private static String orderColumns(TariffSort.Key key) {
+        return switch (key) {
+            case CITY -> "city, type, price, id";
+            case TYPE -> "type, city, price, id";
+            case PRICE -> "price, id";
+            case DISCOUNT -> "discount, id";
+            case FINAL_PRICE -> "price * (100 - discount) / 100, id";
+        };
+    }
+
+    /**
+     * Значения ключа строки after. Итоговую цену считает сама SQLite из цены и скидки
+     * тем же выражением, что и в ORDER BY, — иначе граница страницы «поплывёт» на округлении.
+     */
+    private static String keyPlaceholders(TariffSort.Key key) {
+        return switch (key) {
+            case CITY, TYPE -> "?, ?, ?, ?";
+            case PRICE, DISCOUNT -> "?, ?";
+            case FINAL_PRICE -> "? * (100 - ?) / 100, ?";
+        };
+    }
+
+    private static void keyValues(TariffSort.Key key, Tariff t, List<Object> params) {
+        switch (key) {
+            case CITY -> Collections.addAll(params, t.getCity(), t.getType().name(), t.getPricePerMinute());
+            case TYPE -> Collections.addAll(params, t.getType().name(), t.getCity(), t.getPricePerMinute());
+            case PRICE -> params.add(t.getPricePerMinute());
+            case DISCOUNT -> params.add(t.getDiscountPercent());
+            case FINAL_PRICE -> Collections.addAll(params, t.getPricePerMinute(), t.getDiscountPercent());
+        }
+        params.add(t.getId());
+    }
+
+    private static String orderBy(TariffSort sort) {
+        String cols = orderColumns(sort.getKey());
+        if (!sort.isAscending()) cols = String.join(" DESC, ", cols.split(", ")) + " DESC";
+        return " ORDER BY " + cols;
+    }
+
+    private List<Tariff> query(String sql, List<Object> params) {
+        try {
+            return read(s -> {
+                PreparedStatement ps = s.prepared(sql);
+                bind(ps, 1, params);
+                long t0 = System.nanoTime();
+                try (ResultSet rs = ps.executeQuery()) {
+                    List<Tariff> res = new ArrayList<>();
+                    while (rs.next()) res.add(readTariff(rs));
+                    if (slowSql.isSlow(t0)) slowSql.log(t0, sql, params.toArray());
+                    return res;
+                }
+            });
+        } catch (SQLException | IllegalArgumentException e) {
+            throw new TariffException("Ошибка чтения из БД: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Однонаправленный курсор по всей таблице: строки читаются порциями
+     * (fetch size) и сразу отдаются visitor, объекты Tariff не создаются.
+     */
+    @Override
+    public void forEachRow(TariffRowVisitor visitor) {
+        try {
+            read(s -> {
+                try (PreparedStatement ps = s.connection().prepareStatement(SQL_FIND_ALL,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    ps.setFetchSize(1024);
+                    long t0 = System.nanoTime();
+                    try (ResultSet rs = ps.executeQuery()) {
+                        // время обхода — это работа visitor (запись файла), считаем только выполнение запроса
+                        if (slowSql.isSlow(t0)) slowSql.log(t0, SQL_FIND_ALL);
+                        while (rs.next()) {
+                            visitor.row(rs.getLong(1), rs.getString(2), TariffType.valueOf(rs.getString(3)),
+                                    rs.getDouble(4), rs.getDouble(5));
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException | IllegalArgumentException e) {
+            throw new TariffException("Ошибка чтения из БД: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Следующий id по правилам AUTOINCREMENT: после всех когда-либо выданных (sqlite_sequence),
+     * а не только живых — id удалённых строк не переиспользуются.
+     */
+    synchronized long nextId() {
+        try (Statement st = conn().createStatement()) {
+            long max = 0;
+            try (ResultSet rs = st.executeQuery("SELECT MAX(id) FROM tariffs")) {
+                if (rs.next()) max = rs.getLong(1);
+            }
+            try (ResultSet rs = st.executeQuery("SELECT seq FROM sqlite_sequence WHERE name = 'tariffs'")) {
+                if (rs.next()) max = Math.max(max, rs.getLong(1));
+            }
+            return max + 1;
+        } catch (SQLException e) {
+            throw mapSqlException(e);
+        }
+    }
+
+    /**
+     * Пакет отложенной записи (WriteBehindTariffRepository) — одной транзакцией, один fsync.
+     * Подряд идущие операции одного вида уходят одним JDBC-батчем; строки вставляются
+     * с id, уже выданными представлением в памяти, SCALE — тем же UPDATE, что и scalePrices.
+     * Любое расхождение с БД (строки нет, дубль) откатывает весь пакет и бросает
+     * WriteBehindTariffRepository.Conflict; прочие ошибки — обычный TariffException.
+     */
+    synchronized void applyBatch(List<WriteBehindTariffRepository.Op> ops) {
+        if (ops.isEmpty()) return;
+        try {
+            Connection c = conn();
+            c.setAutoCommit(false);
+            try {
+                long t0 = System.nanoTime();
+                for (int from = 0; from < ops.size(); ) {
+                    WriteBehindTariffRepository.Kind kind = ops.get(from).kind();
+                    int to = from + 1;
+                    while (to < ops.size() && ops.get(to).kind() == kind) to++;
+                    applyRun(kind, ops.subList(from, to));
+                    from = to;
+                }
+                c.commit();
+                if (slowSql.isSlow(t0)) slowSql.log(t0, "отложенная запись", "пакет: " + ops.size() + " операций");
+            } catch (SQLException | RuntimeException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // SQLite: код 19 = SQLITE_CONSTRAINT — БД не примет эти данные и при повторе
+            if (e.getErrorCode() == 19) throw new WriteBehindTariffRepository.Conflict(e.getMessage());
+            throw mapSqlException(e);
+        }
+    }
+
+    /** Серия операций одного вида; строки уже нормализованы представлением. */
+    private void applyRun(WriteBehindTariffRepository.Kind kind, List<WriteBehindTariffRepository.Op> run)
+            throws SQLException {
+        if (kind == WriteBehindTariffRepository.Kind.DELETE_ALL) {
+            try (Statement st = conn().createStatement()) {
+                st.executeUpdate("DELETE FROM tariffs");
+            }
+            return;
+        }
+        if (kind == WriteBehindTariffRepository.Kind.SCALE) {
+            for (WriteBehindTariffRepository.Op op : run) {
+                List<Object> params = new ArrayList<>();
+                String sql = "UPDATE tariffs SET price = round(price*?, 2)" + whereClause(op.filter(), params);
+                PreparedStatement upd = prepared(sql);
+                upd.setDouble(1, op.factor());
+                bind(upd, 2, params);
+                upd.executeUpdate();
+            }
+            return;
+        }
+        PreparedStatement ps = prepared(switch (kind) {
+            case INSERT -> SQL_INSERT_WITH_ID;
+            case UPDATE -> SQL_UPDATE;
+            default -> SQL_DELETE;
+        });
+        for (WriteBehindTariffRepository.Op op : run) {
+            Tariff t = op.row();
+            if (kind == WriteBehindTariffRepository.Kind.DELETE) {
+                ps.setLong(1, op.id());
+            } else {
+                int i = kind == WriteBehindTariffRepository.Kind.INSERT ? 2 : 1;
+                ps.setString(i, t.getCity());
+                ps.setString(i + 1, t.getType().name());
+                ps.setDouble(i + 2, t.getPricePerMinute());
+                ps.setDouble(i + 3, t.getDiscountPercent());
+                ps.setString(i + 4, TariffFilter.cityKey(t.getCity()));
+                ps.setLong(kind == WriteBehindTariffRepository.Kind.INSERT ? 1 : 6, op.id());
+            }
+            ps.addBatch();
+        }
+        for (int n : ps.executeBatch()) {
+            if (n == 0) throw new WriteBehindTariffRepository.Conflict("БД изменена в обход отложенной записи (" + kind + ")");
+        }
+    }
+
+    /** Закрывает читателей, кэш запросов и соединение. Повторный вызов безопасен. */
+    @Override
+    public synchronized void close() {
+        closed = true; // занятые читатели закроются при возврате в пул
+        for (ReadSession r; (r = idleReaders.poll()) != null; ) {
+            r.close();
+            openedReaders.decrementAndGet();
+        }
+        for (PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        statements.clear();
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                throw new TariffException("Ошибка закрытия БД: " + e.getMessage());
+            } finally {
+                connection = null;
+            }
+        }
+    }
+
     // ================== helpers ==================
 
-    private static String normCity(String s) {
+    /** WHERE для TariffFilter; значения параметров дописываются в params по порядку. */
+    private static String whereClause(TariffFilter filter, List<Object> params) {
+        return where(conditions(filter, params));
+    }
+
+    private static String where(List<String> conds) {
+        return conds.isEmpty() ? "" : " WHERE " + String.join(" AND ", conds);
+    }
+
+    private static List<String> conditions(TariffFilter filter, List<Object> params) {
+        List<String> conds = new ArrayList<>();
+        if (filter == null) return conds;
+        if (filter.getType() != null) {
+            conds.add("type = ?");
+            params.add(filter.getType().name());
+        }
+        if (filter.getCity() != null) {
+            conds.add("city = ?");
+            params.add(filter.getCity());
+        }
+        if (filter.getCityKey() != null) {
+            conds.add("city_key = ?");
+            params.add(filter.getCityKey());
+        }
+        if (filter.getCityLike() != null) {
+            conds.add("city_key LIKE ? ESCAPE '\\'");
+            params.add("%" + filter.getCityLike().replace("\\", "\\\\")
+                    .replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+        if (filter.getMinPrice() != null) {
+            conds.add("price >= ?");
+            params.add(filter.getMinPrice());
+        }
+        if (filter.getMaxPrice() != null) {
+            conds.add("price <= ?");
+            params.add(filter.getMaxPrice());
+        }
+        return conds;
+    }
+
+    private static void bind(PreparedStatement ps, int from, List<Object> params) throws SQLException {
+        for (Object p : params) ps.setObject(from++, p);
+    }
+
+    private static Tariff readTariff(ResultSet rs) throws SQLException {
+        long id = rs.getLong("id");
+        String city = rs.getString("city");
+        TariffType type = TariffType.valueOf(rs.getString("type"));
+        double price = rs.getDouble("price");
+        double disc = rs.getDouble("discount");
+        return new Tariff(id, city, type, price, disc);
+    }
+
+    static String normCity(String s) {
         if (s == null) return "";
         return s.trim().replaceAll("\\s+", " ");
     }
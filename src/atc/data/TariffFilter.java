@@ -0,0 +1,103 @@
+package atc.data;
+
+import atc.model.Tariff;
+import atc.model.TariffType;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Условия отбора тарифов: для массовых операций репозитория и для таблицы.
+ * Любое поле может быть null — тогда условие не применяется.
+ */
+public final class TariffFilter {
+    private static final TariffFilter ALL = new TariffFilter(null, null, null, null, null, null);
+
+    private final TariffType type;
+    /** Точное совпадение города (после нормализации пробелов). */
+    private final String city;
+    /** Город без учёта регистра и пробелов (cityKey): все написания одного города. */
+    private final String cityKey;
+    /** Подстрока города без учёта регистра (в виде cityKey). */
+    private final String cityLike;
+    /** Диапазон цены за минуту, границы включительно. */
+    private final Double minPrice, maxPrice;
+
+    private TariffFilter(TariffType type, String city, String cityKey, String cityLike,
+                         Double minPrice, Double maxPrice) {
+        this.type = type;
+        this.city = city;
+        this.cityKey = cityKey;
+        this.cityLike = cityLike;
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+    }
+
+    /** Без условий — все тарифы. */
+    public static TariffFilter all() { return ALL; }
+
+    public TariffFilter withType(TariffType type) {
+        return new TariffFilter(type, city, cityKey, cityLike, minPrice, maxPrice);
+    }
+
+    public TariffFilter withCity(String city) {
+        return new TariffFilter(type, city == null ? null : normCity(city), cityKey, cityLike, minPrice, maxPrice);
+    }
+
+    /** Город совпадает с city без учёта регистра и лишних пробелов («Москва» и «москва»). */
+    public TariffFilter withCityKey(String city) {
+        return new TariffFilter(type, this.city, city == null ? null : cityKey(city), cityLike, minPrice, maxPrice);
+    }
+
+    /** Город содержит part (регистр и лишние пробелы не важны); пустая строка — без условия. */
+    public TariffFilter withCityLike(String part) {
+        String key = part == null ? null : cityKey(part);
+        return new TariffFilter(type, city, cityKey, key == null || key.isEmpty() ? null : key, minPrice, maxPrice);
+    }
+
+    public TariffFilter withPriceRange(Double min, Double max) {
+        return new TariffFilter(type, city, cityKey, cityLike, min, max);
+    }
+
+    public TariffType getType() { return type; }
+    public String getCity() { return city; }
+    public String getCityKey() { return cityKey; }
+    public String getCityLike() { return cityLike; }
+    public Double getMinPrice() { return minPrice; }
+    public Double getMaxPrice() { return maxPrice; }
+
+    public boolean isAll() {
+        return type == null && city == null && cityKey == null && cityLike == null && minPrice == null && maxPrice == null;
+    }
+
+    /** Проверка «в памяти» — для реализаций репозитория без SQL. */
+    public boolean matches(Tariff t) {
+        if (type != null && t.getType() != type) return false;
+        if (city != null && !city.equals(normCity(t.getCity()))) return false;
+        if (cityKey != null && !cityKey.equals(cityKey(t.getCity()))) return false;
+        if (cityLike != null && !cityKey(t.getCity()).contains(cityLike)) return false;
+        if (minPrice != null && t.getPricePerMinute() < minPrice) return false;
+        return maxPrice == null || t.getPricePerMinute() <= maxPrice;
+    }
+
+    /** Ключ города для поиска: нормализованные пробелы, нижний регистр. */
+    public static String cityKey(String s) {
+        return normCity(s).toLowerCase(Locale.ROOT);
+    }
+
+    private static String normCity(String s) {
+        return s == null ? "" : s.trim().replaceAll("\\s+", " ");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TariffFilter f)) return false;
+        return type == f.type && Objects.equals(city, f.city) && Objects.equals(cityKey, f.cityKey)
+                && Objects.equals(cityLike, f.cityLike)
+                && Objects.equals(minPrice, f.minPrice) && Objects.equals(maxPrice, f.maxPrice);
+    }
+
+    @Override
+    public int hashCode() { return Objects.hash(type, city, cityKey, cityLike, minPrice, maxPrice); }
+}
@@ -1,24 +1,138 @@
 package atc.data;
 
 import atc.model.Tariff;
+import atc.service.ProgressMonitor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 
-public interface TariffRepository {
+public interface TariffRepository extends AutoCloseable {
+    /**
+     * «Естественный» порядок findAll(): город, тип (по имени константы), цена, id.
+     * Совпадает с ORDER BY city, type, price, id в SQLite (BINARY-сравнение строк).
+     */
+    Comparator<Tariff> NATURAL_ORDER = (a, b) -> {
+        // без цепочки thenComparing: компаратор горячий (сортировки, двоичный поиск в cache)
+        int c = a.getCity().compareTo(b.getCity());
+        if (c != 0) return c;
+        if (a.getType() != b.getType()) return a.getType().name().compareTo(b.getType().name());
+        c = Double.compare(a.getPricePerMinute(), b.getPricePerMinute());
+        if (c != 0) return c;
+        Long x = a.getId(), y = b.getId();
+        if (x == null) return y == null ? 0 : 1;
+        return y == null ? -1 : Long.compare(x, y);
+    };
+
     /** Полный список тарифов в «естественном» порядке (для UI). */
     List<Tariff> findAll();
 
     /** Добавляет и возвращает тариф уже с присвоенным id. */
     Tariff add(Tariff t);
 
-    /** Обновляет по id; id в t обязан быть не null. */
-    void update(Tariff t);
+    /**
+     * Пакетное добавление (для импорта). Возвращает список той же длины, что и items:
+     * на i-й позиции — сохранённый тариф с id, либо null, если строку отверг
+     * уникальный ключ хранилища (дубль).
+     */
+    List<Tariff> addAll(Collection<Tariff> items);
+
+    /** Обновляет по id; id в t обязан быть не null. false — строки с таким id нет. */
+    boolean update(Tariff t);
+
+    /** Удаляет по id. false — строки с таким id не было. */
+    boolean delete(long id);
+
+    /**
+     * Атомарно умножает цены отобранных тарифов на factor с округлением до копеек.
+     * Если хоть одна новая цена выйдет из 0.01..1000.00 (или возникнет дубль),
+     * не меняется ничего. Возвращает число изменённых строк.
+     */
+    int scalePrices(double factor, TariffFilter filter);
 
-    /** Удаляет по id. */
-    void delete(long id);
+    /**
+     * То же с возможностью отмены: отменённая операция не меняет ничего
+     * и завершается CancellationException.
+     */
+    default int scalePrices(double factor, TariffFilter filter, ProgressMonitor monitor) {
+        monitor.checkCancelled();
+        return scalePrices(factor, filter);
+    }
+
+    /** Удаляет строки с указанными id; возвращает, сколько удалено. */
+    default int deleteByIds(Collection<Long> ids) {
+        int n = 0;
+        for (long id : ids) {
+            if (delete(id)) n++;
+        }
+        return n;
+    }
 
     /** Полная очистка хранилища. */
     void deleteAll();
 
     Optional<Tariff> findById(long id);
+
+    /** Сколько строк проходит фильтр. */
+    default long count(TariffFilter filter) {
+        if (filter == null || filter.isAll()) return findAll().size();
+        return findAll().stream().filter(filter::matches).count();
+    }
+
+    /**
+     * Страница по ключу (keyset): до limit строк в порядке NATURAL_ORDER,
+     * строго после after (null — с начала). Не зависит от сдвигов выше страницы.
+     */
+    default List<Tariff> findPage(TariffFilter filter, Tariff after, int limit) {
+        return findPage(filter, TariffSort.NATURAL, after, limit);
+    }
+
+    /** Страница по смещению — для «прыжков», когда ключ предыдущей страницы неизвестен. */
+    default List<Tariff> findPageAt(TariffFilter filter, long offset, int limit) {
+        return findPageAt(filter, TariffSort.NATURAL, offset, limit);
+    }
+
+    /** То же в заданном порядке sort. */
+    default List<Tariff> findPage(TariffFilter filter, TariffSort sort, Tariff after, int limit) {
+        List<Tariff> all = selectSorted(filter, sort);
+        int from = 0;
+        if (after != null) {
+            int pos = Collections.binarySearch(all, after, sort.comparator());
+            from = pos >= 0 ? pos + 1 : -(pos + 1);
+        }
+        return new ArrayList<>(all.subList(from, Math.min(all.size(), from + limit)));
+    }
+
+    default List<Tariff> findPageAt(TariffFilter filter, TariffSort sort, long offset, int limit) {
+        List<Tariff> all = selectSorted(filter, sort);
+        int from = (int) Math.min(offset, all.size());
+        return new ArrayList<>(all.subList(from, Math.min(all.size(), from + limit)));
+    }
+
+    /** Запасной путь без SQL: отбор и сортировка в памяти. */
+    private List<Tariff> selectSorted(TariffFilter filter, TariffSort sort) {
+        List<Tariff> all = findAll();
+        if (filter != null && !filter.isAll()) all = all.stream().filter(filter::matches).toList();
+        if (!sort.isNatural()) {
+            all = new ArrayList<>(all);
+            all.sort(sort.comparator());
+        }
+        return all;
+    }
+
+    /**
+     * Обход всех строк в порядке NATURAL_ORDER без сборки списка.
+     * По умолчанию — через findAll(); SQLite читает курсором.
+     */
+    default void forEachRow(TariffRowVisitor visitor) {
+        for (Tariff t : findAll()) {
+            visitor.row(t.getId(), t.getCity(), t.getType(), t.getPricePerMinute(), t.getDiscountPercent());
+        }
+    }
+
+    /** Освобождение ресурсов хранилища (соединения и т.п.). */
+    @Override
+    default void close() {}
 }
@@ -0,0 +1,12 @@
+package atc.data;
+
+import atc.model.TariffType;
+
+/**
+ * Построчный обход тарифов без сборки List&lt;Tariff&gt; (потоковый экспорт и т.п.).
+ * Поля передаются как есть из хранилища; объекты Tariff не создаются.
+ */
+@FunctionalInterface
+public interface TariffRowVisitor {
+    void row(long id, String city, TariffType type, double price, double discount);
+}
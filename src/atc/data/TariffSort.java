@@ -0,0 +1,73 @@
+package atc.data;
+
+import atc.model.Tariff;
+
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * Порядок строк таблицы: ключ и направление. Каждому ключу в SQLite соответствует
+ * индекс (см. SqliteTariffRepository), id в конце делает порядок полным — по нему
+ * работает постраничное чтение «после строки».
+ */
+public final class TariffSort {
+
+    public enum Key {
+        /** Город, тип, цена, id — «естественный» порядок findAll(). */
+        CITY,
+        /** Тип, город, цена, id. */
+        TYPE,
+        /** Цена за минуту, id. */
+        PRICE,
+        /** Скидка, id. */
+        DISCOUNT,
+        /** Итоговая цена price·(100 − discount)/100, id. */
+        FINAL_PRICE
+    }
+
+    public static final TariffSort NATURAL = new TariffSort(Key.CITY, true);
+
+    private final Key key;
+    private final boolean ascending;
+
+    private TariffSort(Key key, boolean ascending) {
+        this.key = key;
+        this.ascending = ascending;
+    }
+
+    public static TariffSort of(Key key, boolean ascending) {
+        return key == Key.CITY && ascending ? NATURAL : new TariffSort(Objects.requireNonNull(key), ascending);
+    }
+
+    public Key getKey() { return key; }
+    public boolean isAscending() { return ascending; }
+    public boolean isNatural() { return key == Key.CITY && ascending; }
+
+    /** Тот же порядок в памяти — для репозиториев без SQL. */
+    public Comparator<Tariff> comparator() {
+        Comparator<Tariff> byId = Comparator.comparing(Tariff::getId, Comparator.nullsLast(Comparator.naturalOrder()));
+        Comparator<Tariff> c = switch (key) {
+            case CITY -> TariffRepository.NATURAL_ORDER;
+            case TYPE -> Comparator.comparing((Tariff t) -> t.getType().name())
+                    .thenComparing(TariffRepository.NATURAL_ORDER);
+            case PRICE -> Comparator.comparingDouble(Tariff::getPricePerMinute).thenComparing(byId);
+            case DISCOUNT -> Comparator.comparingDouble(Tariff::getDiscountPercent).thenComparing(byId);
+            case FINAL_PRICE -> Comparator.comparingDouble((Tariff t) ->
+                    t.getPricePerMinute() * (100 - t.getDiscountPercent()) / 100).thenComparing(byId);
+        };
+        return ascending ? c : c.reversed();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TariffSort s)) return false;
+        return key == s.key && ascending == s.ascending;
+    }
+
+    @Override
+    public int hashCode() { return Objects.hash(key, ascending); }
+
+    @Override
+    public String toString() { return key + (ascending ? " ASC" : " DESC"); }
+}
@@ -0,0 +1,633 @@
+package atc.data;
+
+import atc.metrics.Metrics;
+import atc.model.Tariff;
+import atc.model.TariffType;
+import atc.service.TariffException;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Отложенная запись в SQLite (write-behind) с групповым коммитом.
+ *
+ * Изменение сразу проверяется по представлению в памяти (id и ключи UNIQUE строк таблицы)
+ * и ставится в очередь. Фоновый поток «atc-write-behind» сбрасывает очередь в БД
+ * одной транзакцией (SqliteTariffRepository.applyBatch), когда в ней набралось
+ * batchSize операций или самая старая ждёт дольше maxDelayMillis: десятки правок
+ * платят за один fsync. Порядок операций сохраняется; id новым строкам выдаёт представление,
+ * а UNIQUE и CHECK таблицы проверяются здесь же, так что пакет не должен упасть на данных.
+ * id выдаются после всех, когда-либо выданных таблицей (sqlite_sequence), как при AUTOINCREMENT.
+ * scalePrices уходит в БД одной операцией — тем же UPDATE по фильтру, что и у SqliteTariffRepository.
+ *
+ * flush() возвращается, когда записано всё сделанное до него. Ошибка записи (БД недоступна,
+ * диск) не теряется: пакет остаётся в очереди (фон повторяет попытку), а flush() и любое
+ * изменение бросают TariffException, пока запись не пройдёт. Если очередь разрослась
+ * до MAX_BACKLOG пакетов, изменяющий поток сбрасывает её сам — до своего изменения.
+ *
+ * Если же БД отвергла пакет по данным (её изменили в обход: другой процесс вставил строку
+ * с тем же id или ключом, удалил строку), пакет делится пополам, пока отвергнутые операции
+ * не останутся по одной; они и все следующие по той же строке отбрасываются, остальное
+ * записывается. Затем представление перечитывается из БД, а ждущая очередь накладывается
+ * на него заново (с новыми id, если старые заняты). Об отброшенном — в журнал «atc.sql»
+ * и слушателю setRejectionListener (например, чтобы перечитать TariffManager).
+ * Запись пакета в БД считается в setMetrics(...) как «writeBehind.applyBatch» — настоящая
+ * задержка SQLite, которую обёртка InstrumentedTariffRepository над этим хранилищем не видит.
+ * Чтение страниц, COUNT и обход таблицы идут в SqliteTariffRepository после flush(),
+ * так что отбор и сортировка остаются за индексами БД; из памяти — только findById.
+ * close() дописывает остаток и закрывает БД.
+ */
+public class WriteBehindTariffRepository implements TariffRepository {
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 200;
+    private static final int MAX_BACKLOG = 16;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private static final Logger LOG = Logger.getLogger("atc.sql");
+
+    enum Kind { INSERT, UPDATE, DELETE, DELETE_ALL, SCALE }
+
+    /**
+     * Операция очереди: row — строка INSERT/UPDATE (с id), id — строки;
+     * у SCALE — множитель цены и фильтр (один UPDATE в БД).
+     */
+    record Op(Kind kind, long id, Tariff row, double factor, TariffFilter filter) {
+        Op(Kind kind, long id, Tariff row) {
+            this(kind, id, row, 0, null);
+        }
+
+        @Override
+        public String toString() {
+            return switch (kind) {
+                case SCALE -> "SCALE x" + factor + (filter == null || filter.isAll() ? "" : " по фильтру");
+                case DELETE_ALL -> "DELETE_ALL";
+                default -> kind + " id=" + id;
+            };
+        }
+    }
+
+    /** БД отвергла операцию по данным (ограничение, строки нет) — повтор не поможет. */
+    static final class Conflict extends TariffException {
+        Conflict(String message) { super(message); }
+    }
+
+    /** UNIQUE(city, type, price, discount) таблицы: «сырые» значения, как сравнивает SQLite. */
+    private record RowKey(String city, TariffType type, double price, double discount) {
+        static RowKey of(Tariff t) {
+            return new RowKey(t.getCity(), t.getType(), t.getPricePerMinute(), t.getDiscountPercent());
+        }
+    }
+
+    private final SqliteTariffRepository target;
+    private final int batchSize;
+    private final long maxDelayNanos;
+
+    // Представление и очередь — под this. Строки представления наружу не отдаются, только копии.
+    private final Map<Long, Tariff> byId = new HashMap<>();
+    private final Set<RowKey> keys = new HashSet<>();
+    private long seq;
+
+    private List<Op> pending = new ArrayList<>();
+    private long firstPendingAt;
+    /** Последняя ошибка записи; сбрасывается первым удачным пакетом. */
+    private RuntimeException failure;
+    private boolean closed;
+    private volatile Consumer<TariffException> rejectionListener = e -> { };
+    private volatile Metrics metrics = Metrics.NONE;
+
+    /** Пакеты пишутся строго по одному: порядок в БД = порядок операций. */
+    private final Object flushLock = new Object();
+
+    public WriteBehindTariffRepository(SqliteTariffRepository target) {
+        this(target, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /** Загружает таблицу в память и запускает фоновую запись. */
+    public WriteBehindTariffRepository(SqliteTariffRepository target, int batchSize, long maxDelayMillis) {
+        if (batchSize < 1 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("batchSize >= 1, maxDelayMillis >= 0");
+        }
+        this.target = target;
+        this.batchSize = batchSize;
+        this.maxDelayNanos = maxDelayMillis * 1_000_000;
+
+        load();
+
+        Thread flusher = new Thread(this::runFlusher, "atc-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // ================== Изменения ==================
+
+    @Override
+    public Tariff add(Tariff t) {
+        throttle();
+        Tariff row;
+        synchronized (this) {
+            checkWritable();
+            row = normalize(seq, t);
+            checkRow(row);
+            if (keys.contains(RowKey.of(row))) throw duplicate();
+            seq++;
+            index(row);
+            enqueue(new Op(Kind.INSERT, row.getId(), row));
+        }
+        return copy(row);
+    }
+
+    /** Как INSERT OR IGNORE в SQLite: дубль или строка вне CHECK — null на её месте. */
+    @Override
+    public List<Tariff> addAll(Collection<Tariff> items) {
+        throttle();
+        List<Tariff> res = new ArrayList<>(items.size());
+        synchronized (this) {
+            checkWritable();
+            for (Tariff t : items) {
+                Tariff row = normalize(seq, t);
+                if (!fitsChecks(row) || keys.contains(RowKey.of(row))) {
+                    res.add(null);
+                    continue;
+                }
+                seq++;
+                index(row);
+                enqueue(new Op(Kind.INSERT, row.getId(), row));
+                res.add(copy(row));
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public boolean update(Tariff t) {
+        if (t.getId() == null) {
+            throw new IllegalArgumentException("id тарифа не задан");
+        }
+        throttle();
+        synchronized (this) {
+            checkWritable();
+            Tariff old = byId.get(t.getId());
+            if (old == null) return false;
+            Tariff row = normalize(t.getId(), t);
+            checkRow(row);
+            RowKey key = RowKey.of(row);
+            if (!key.equals(RowKey.of(old)) && keys.contains(key)) throw duplicate();
+            unindex(old);
+            index(row);
+            enqueue(new Op(Kind.UPDATE, row.getId(), row));
+        }
+        return true;
+    }
+
+    @Override
+    public boolean delete(long id) {
+        throttle();
+        synchronized (this) {
+            checkWritable();
+            Tariff old = byId.get(id);
+            if (old == null) return false;
+            unindex(old);
+            enqueue(new Op(Kind.DELETE, id, null));
+        }
+        return true;
+    }
+
+    @Override
+    public int deleteByIds(Collection<Long> ids) {
+        throttle();
+        int n = 0;
+        synchronized (this) {
+            checkWritable();
+            for (long id : ids) {
+                Tariff old = byId.get(id);
+                if (old == null) continue;
+                unindex(old);
+                enqueue(new Op(Kind.DELETE, id, null));
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /** Ждущие в очереди операции после очистки не нужны — остаётся одна DELETE_ALL. */
+    @Override
+    public synchronized void deleteAll() {
+        checkWritable();
+        clearView();
+        pending.clear();
+        enqueue(new Op(Kind.DELETE_ALL, 0, null));
+    }
+
+    /**
+     * «Всё или ничего», как в SQLite: диапазон и UNIQUE проверяются до изменения.
+     * В очередь идёт одна операция SCALE — в БД она станет одним UPDATE по фильтру.
+     * Цены округляются до копеек так же, как округлял построчный путь (Math.round);
+     * round(price*?, 2) в SQLite может разойтись с ним лишь на точной половине копейки.
+     */
+    @Override
+    public int scalePrices(double factor, TariffFilter filter) {
+        throttle();
+        synchronized (this) {
+            checkWritable();
+            int matched = scaleView(factor, filter);
+            enqueue(new Op(Kind.SCALE, 0, null, factor, filter));
+            return matched;
+        }
+    }
+
+    // ================== Чтение ==================
+    // Страницы, число строк и обход — из БД (индексы, ORDER BY/LIMIT в SQL), после flush():
+    // SQLite видит всё, что изменено до вызова. По id — из представления, без ожидания записи.
+
+    @Override
+    public List<Tariff> findAll() {
+        flush();
+        return target.findAll();
+    }
+
+    @Override
+    public synchronized Optional<Tariff> findById(long id) {
+        Tariff t = byId.get(id);
+        return t == null ? Optional.empty() : Optional.of(copy(t));
+    }
+
+    @Override
+    public long count(TariffFilter filter) {
+        flush();
+        return target.count(filter);
+    }
+
+    @Override
+    public List<Tariff> findPage(TariffFilter filter, TariffSort sort, Tariff after, int limit) {
+        flush();
+        return target.findPage(filter, sort, after, limit);
+    }
+
+    @Override
+    public List<Tariff> findPageAt(TariffFilter filter, TariffSort sort, long offset, int limit) {
+        flush();
+        return target.findPageAt(filter, sort, offset, limit);
+    }
+
+    @Override
+    public void forEachRow(TariffRowVisitor visitor) {
+        flush();
+        target.forEachRow(visitor);
+    }
+
+    // ================== Запись в БД ==================
+
+    /**
+     * Кому сообщить об операциях, которые БД отвергла (они отброшены, представление перечитано).
+     * Вызывается в потоке записи без блокировок хранилища; долгую работу — в свой поток.
+     */
+    public void setRejectionListener(Consumer<TariffException> listener) {
+        this.rejectionListener = Objects.requireNonNull(listener);
+    }
+
+    /** Учитывать запись пакетов в БД («writeBehind.applyBatch»: число, ошибки, задержки). */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    /** Дождаться записи в БД всего, что изменено до вызова. */
+    public void flush() {
+        try {
+            flushPending();
+        } catch (RuntimeException e) {
+            throw notWritten(e);
+        }
+    }
+
+    /** Сколько операций ждёт записи. */
+    public synchronized int getPendingCount() { return pending.size(); }
+
+    /** Дописывает очередь и закрывает БД; дальнейшие изменения отвергаются. Повторный вызов безопасен. */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flushPending();
+        } catch (RuntimeException e) {
+            throw notWritten(e);
+        } finally {
+            target.close();
+        }
+    }
+
+    private void flushPending() {
+        List<String> rejected = new ArrayList<>();
+        try {
+            synchronized (flushLock) {
+                List<Op> batch;
+                synchronized (this) {
+                    if (pending.isEmpty()) return;
+                    batch = pending;
+                    pending = new ArrayList<>();
+                }
+                int[] done = {0};
+                Set<Long> lost = new HashSet<>();
+                try {
+                    write(batch, lost, rejected, done);
+                    synchronized (this) {
+                        failure = null;
+                    }
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        // недописанный остаток — обратно в голову очереди, перед тем, что пришло за время записи
+                        List<Op> rest = new ArrayList<>(batch.subList(done[0], batch.size()));
+                        rest.addAll(pending);
+                        pending = rest;
+                        failure = e;
+                    }
+                    throw e;
+                } finally {
+                    if (!rejected.isEmpty()) recover(rejected, lost);
+                }
+            }
+        } finally {
+            boolean open;
+            synchronized (this) {
+                open = !closed;
+            }
+            if (!rejected.isEmpty() && open) {
+                rejectionListener.accept(new TariffException("БД отвергла " + rejected.size()
+                        + " отложенных изменений (изменена в обход), данные перечитаны: " + String.join("; ", rejected)));
+            }
+        }
+    }
+
+    /**
+     * Записать ops по порядку. Конфликт по данным — деление пополам до одиночной операции,
+     * которая отбрасывается (в rejected) вместе со всеми следующими по той же строке (lost):
+     * иначе UPDATE строки, чей INSERT отвергнут, попал бы в чужую строку с тем же id.
+     * done — сколько операций с начала обработано: при прочей ошибке остаток не записан.
+     */
+    private void write(List<Op> ops, Set<Long> lost, List<String> rejected, int[] done) {
+        List<Op> live = new ArrayList<>(ops.size());
+        List<Op> skipped = new ArrayList<>();
+        for (Op op : ops) {
+            if (op.id() != 0 && lost.contains(op.id())) skipped.add(op);
+            else live.add(op);
+        }
+        try {
+            metrics.time("writeBehind.applyBatch", () -> target.applyBatch(live));
+        } catch (Conflict e) {
+            if (ops.size() > 1) {
+                int mid = ops.size() / 2;
+                write(ops.subList(0, mid), lost, rejected, done);
+                write(ops.subList(mid, ops.size()), lost, rejected, done);
+                return;
+            }
+            Op op = ops.get(0);
+            if (op.id() != 0) lost.add(op.id());
+            rejected.add(op + ": " + e.getMessage());
+            done[0]++;
+            return;
+        }
+        for (Op op : skipped) rejected.add(op + ": строка уже отвергнута");
+        done[0] += ops.size();
+    }
+
+    /**
+     * После отвергнутых операций представление расходится с БД: перечитать его и заново
+     * наложить очередь (она строилась на старом представлении). Под flushLock — пакеты не идут.
+     * lost — id строк, чьи операции отвергнуты: следующие операции по ним тоже отбрасываются.
+     */
+    private void recover(List<String> rejected, Set<Long> lost) {
+        synchronized (this) {
+            if (!closed) {
+                List<Op> queued = pending;
+                List<Tariff> before = new ArrayList<>(byId.values());
+                pending = new ArrayList<>();
+                clearView();
+                try {
+                    load();
+                    replay(queued, lost, rejected);
+                } catch (RuntimeException e) {
+                    // БД не читается — оставляем прежнее представление и очередь до следующей попытки
+                    clearView();
+                    before.forEach(this::index);
+                    pending = queued;
+                    LOG.warning("Отложенная запись: представление не перечитано: " + e.getMessage());
+                }
+            }
+        }
+        LOG.warning("Отложенная запись: БД отвергла " + rejected.size() + " операций, они отброшены: "
+                + String.join("; ", rejected));
+    }
+
+    /**
+     * Наложить ops на свежее представление с теми же проверками, что и при изменении.
+     * Не проходящие проверку отбрасываются (в rejected); INSERT с id, занятым в БД, получает новый.
+     */
+    private void replay(List<Op> ops, Set<Long> lost, List<String> rejected) {
+        Map<Long, Long> renamed = new HashMap<>();
+        for (Op op : ops) {
+            long id = renamed.getOrDefault(op.id(), op.id());
+            if (op.id() != 0 && lost.contains(op.id())) {
+                rejected.add(op + ": строка уже отвергнута");
+                continue;
+            }
+            switch (op.kind()) {
+                case INSERT -> {
+                    if (byId.containsKey(id)) {
+                        id = seq++;
+                        renamed.put(op.id(), id);
+                    }
+                    Tariff row = normalize(id, op.row());
+                    if (keys.contains(RowKey.of(row))) {
+                        lost.add(op.id());
+                        rejected.add(op + ": такой тариф уже есть в БД");
+                        continue;
+                    }
+                    index(row);
+                    enqueue(new Op(Kind.INSERT, id, row));
+                }
+                case UPDATE -> {
+                    Tariff old = byId.get(id);
+                    Tariff row = normalize(id, op.row());
+                    RowKey key = RowKey.of(row);
+                    if (old == null || !key.equals(RowKey.of(old)) && keys.contains(key)) {
+                        lost.add(op.id());
+                        rejected.add(op + (old == null ? ": строки нет в БД" : ": такой тариф уже есть в БД"));
+                        continue;
+                    }
+                    unindex(old);
+                    index(row);
+                    enqueue(new Op(Kind.UPDATE, id, row));
+                }
+                case DELETE -> {
+                    Tariff old = byId.get(id);
+                    if (old == null) continue; // строку уже удалили — удалять нечего
+                    unindex(old);
+                    enqueue(new Op(Kind.DELETE, id, null));
+                }
+                case DELETE_ALL -> {
+                    clearView();
+                    enqueue(op);
+                }
+                case SCALE -> {
+                    try {
+                        scaleView(op.factor(), op.filter());
+                        enqueue(op);
+                    } catch (TariffException e) {
+                        rejected.add(op + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private void runFlusher() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!closed && !due()) {
+                        if (pending.isEmpty()) {
+                            wait();
+                        } else {
+                            long left = firstPendingAt + maxDelayNanos - System.nanoTime();
+                            wait(Math.max(1, left / 1_000_000));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) return; // остаток дописывает close()
+            }
+            try {
+                flushPending();
+            } catch (RuntimeException e) {
+                // ошибка сохранена в failure и дойдёт до вызывающего; повтор — после паузы
+                synchronized (this) {
+                    try {
+                        if (!closed) wait(RETRY_DELAY_MILLIS);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean due() {
+        return !pending.isEmpty()
+                && (pending.size() >= batchSize || System.nanoTime() - firstPendingAt >= maxDelayNanos);
+    }
+
+    private void enqueue(Op op) {
+        if (pending.isEmpty()) {
+            firstPendingAt = System.nanoTime();
+            notifyAll(); // фон засыпает до срока самой старой операции
+        }
+        pending.add(op);
+        if (pending.size() == batchSize) notifyAll();
+    }
+
+    /**
+     * Фон не успевает — изменяющий поток пишет сам (вне this, чтобы не держать другие потоки).
+     * Вызывается до изменения: если запись не удалась, изменение отвергается, а не остаётся
+     * в представлении при брошенном исключении.
+     */
+    private void throttle() {
+        boolean backlog;
+        synchronized (this) {
+            backlog = pending.size() >= batchSize * MAX_BACKLOG;
+        }
+        if (backlog) flush();
+    }
+
+    private void checkWritable() {
+        if (closed) throw new TariffException("Хранилище закрыто");
+        if (failure != null) throw notWritten(failure);
+    }
+
+    private static TariffException notWritten(RuntimeException e) {
+        return new TariffException("Изменения не записаны в БД: " + e.getMessage());
+    }
+
+    private static TariffException duplicate() {
+        return new TariffException("Такой тариф уже существует (нарушено ограничение уникальности).");
+    }
+
+    // ================== Представление ==================
+
+    /** Прочитать таблицу в представление (пустое); seq — после всех id, выданных таблицей. */
+    private void load() {
+        target.forEachRow((id, city, type, price, discount) -> index(new Tariff(id, city, type, price, discount)));
+        seq = Math.max(seq, target.nextId());
+    }
+
+    /**
+     * Изменить цены отобранных строк представления: «всё или ничего» — диапазон
+     * и UNIQUE проверяются до изменения. Возвращает число отобранных строк.
+     */
+    private int scaleView(double factor, TariffFilter filter) {
+        List<Tariff> olds = new ArrayList<>();
+        List<Tariff> rows = new ArrayList<>();
+        for (Tariff t : byId.values()) {
+            if (filter != null && !filter.isAll() && !filter.matches(t)) continue;
+            double p = Math.round(t.getPricePerMinute() * factor * 100.0) / 100.0;
+            if (!(p >= 0.01 && p <= 1_000.00)) {
+                throw new TariffException("Цена должна быть 0.01..1 000.00 (после изменения: " + p + ")");
+            }
+            olds.add(t);
+            rows.add(new Tariff(t.getId(), t.getCity(), t.getType(), p, t.getDiscountPercent()));
+        }
+
+        for (Tariff t : olds) keys.remove(RowKey.of(t));
+        for (int i = 0; i < rows.size(); i++) {
+            if (!keys.add(RowKey.of(rows.get(i)))) {
+                for (int k = 0; k < i; k++) keys.remove(RowKey.of(rows.get(k)));
+                for (Tariff t : olds) keys.add(RowKey.of(t));
+                throw duplicate();
+            }
+        }
+        for (Tariff row : rows) byId.put(row.getId(), row);
+        return rows.size();
+    }
+
+    private void index(Tariff t) {
+        byId.put(t.getId(), t);
+        keys.add(RowKey.of(t));
+    }
+
+    private void clearView() {
+        byId.clear();
+        keys.clear();
+    }
+
+    private void unindex(Tariff t) {
+        byId.remove(t.getId());
+        keys.remove(RowKey.of(t));
+    }
+
+    /** Строка в том виде, в каком её сохранит SQLite: город без лишних пробелов, у обычного тарифа скидка 0. */
+    private static Tariff normalize(long id, Tariff t) {
+        double discount = t.getType() == TariffType.PRIVILEGED ? t.getDiscountPercent() + 0.0 : 0.0;
+        return new Tariff(id, SqliteTariffRepository.normCity(t.getCity()), t.getType(), t.getPricePerMinute(), discount);
+    }
+
+    /** CHECK-ограничения таблицы tariffs. */
+    private static boolean fitsChecks(Tariff t) {
+        return t.getType() != null
+                && t.getPricePerMinute() >= 0.01 && t.getPricePerMinute() <= 1000.00
+                && t.getDiscountPercent() >= 0 && t.getDiscountPercent() <= 100;
+    }
+
+    private static void checkRow(Tariff t) {
+        if (!fitsChecks(t)) {
+            throw new TariffException("Ошибка работы с БД: нарушено ограничение CHECK (цена 0.01..1000.00, скидка 0..100)");
+        }
+    }
+
+    private static Tariff copy(Tariff t) {
+        return new Tariff(t.getId(), t.getCity(), t.getType(), t.getPricePerMinute(), t.getDiscountPercent());
+    }
+}
@@ -0,0 +1,183 @@
+package atc.io;
+
+import atc.rating.CallRatingEngine;
+import atc.rating.CdrBatch;
+import atc.rating.RatingTotals;
+import atc.service.ProgressMonitor;
+import atc.service.TariffException;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Тарификация звонков «CSV → CSV».
+ *
+ * Вход (UTF-8, BOM допускается): шапка city;type;duration, далее строки
+ * «город;REGULAR|PRIVILEGED;секунды»; лишние поля справа игнорируются.
+ * Выход: city;type;duration;minutes;charge (charge в рублях, пусто — тарифа нет).
+ *
+ * Строки разбираются прямо из байтов в переиспользуемые буферы (CdrLineParser),
+ * копятся в CdrBatch и тарифицируются пачкой, — на запись ничего не аллоцируется.
+ * Выход пишется атомарно, как CsvIO.save: при ошибке в строке или отмене целевой файл не меняется.
+ */
+public final class CdrCsvIO {
+    static final String HEADER = "city;type;duration;minutes;charge";
+    static final int BATCH = 8192;
+    private static final int READ_BUFFER = 1 << 20;
+
+    private CdrCsvIO() {}
+
+    /** Итог тарификации файла. */
+    public static final class Result {
+        private final long records;
+        private final RatingTotals totals;
+
+        Result(long records, RatingTotals totals) {
+            this.records = records;
+            this.totals = totals;
+        }
+
+        public long getRecords() { return records; }
+        public long getRated() { return totals.getRated(); }
+        public long getUnrated() { return totals.getUnrated(); }
+        public long getTotalCents() { return totals.getTotalCents(); }
+        /** Разбивка по типам и городам. */
+        public RatingTotals getTotals() { return totals; }
+    }
+
+    public static Result rate(File in, File out, CallRatingEngine engine) {
+        return rate(in, out, engine, ProgressMonitor.NONE);
+    }
+
+    /** Ход — прочитанные байты из размера входного файла; отмена проверяется после каждой пачки. */
+    public static Result rate(File in, File out, CallRatingEngine engine, ProgressMonitor monitor) {
+        RatingTotals totals = engine.newTotals();
+        long[] records = {0};
+        try (InputStream is = new FileInputStream(in)) {
+            Reader reader = new Reader(is, in.length());
+            CsvIO.writeAtomically(out, HEADER, w -> {
+                CdrBatch batch = new CdrBatch(BATCH);
+                long[] charges = new long[BATCH];
+                while (reader.next(batch, BATCH)) {
+                    engine.rate(batch, charges, totals);
+                    writeBatch(w, batch, charges);
+                    records[0] += batch.size();
+                    monitor.progress(reader.consumed, reader.total);
+                    monitor.checkCancelled();
+                }
+            });
+        } catch (FileNotFoundException e) {
+            throw new TariffException("Не удалось открыть: " + e.getMessage());
+        } catch (IOException e) {
+            throw new TariffException("Ошибка чтения: " + e.getMessage());
+        }
+        return new Result(records[0], totals);
+    }
+
+    /** Параллельная тарификация в общем ForkJoinPool. */
+    public static Result rateParallel(File in, File out, CallRatingEngine engine,
+                                      boolean ordered, ProgressMonitor monitor) {
+        return rateParallel(in, out, engine, ForkJoinPool.commonPool(), ordered, monitor);
+    }
+
+    /**
+     * Тот же результат, что rate(...), но файл режется на куски по границам строк,
+     * и куски разбираются, тарифицируются и форматируются параллельно в pool
+     * (см. ParallelCdrRater). ordered — строки выхода в порядке входа;
+     * иначе куски пишутся по мере готовности (итоги те же).
+     */
+    public static Result rateParallel(File in, File out, CallRatingEngine engine, ForkJoinPool pool,
+                                      boolean ordered, ProgressMonitor monitor) {
+        return ParallelCdrRater.run(in, out, engine, pool, ordered, monitor);
+    }
+
+    static void writeBatch(CsvChannelWriter out, CdrBatch batch, long[] charges) throws IOException {
+        char[] chars = batch.chars();
+        for (int i = 0, n = batch.size(); i < n; i++) {
+            long seconds = batch.seconds(i);
+            out.text(chars, batch.cityFrom(i), batch.cityTo(i)).sep()
+               .ascii(batch.type(i).name()).sep()
+               .number(seconds).sep()
+               .number(CallRatingEngine.billedMinutes(seconds)).sep();
+            if (charges[i] != CallRatingEngine.UNRATED) out.decimal(charges[i], 2);
+            out.newline();
+        }
+    }
+
+    /** Построчное чтение байтов с разбором прямо в CdrBatch. */
+    private static final class Reader {
+        private final InputStream in;
+        private final CdrLineParser parser = new CdrLineParser();
+        final long total;
+        long consumed;
+
+        private byte[] buf = new byte[READ_BUFFER];
+        private int pos, limit;
+        private boolean eof, started;
+        private int lineNo;
+
+        Reader(InputStream in, long total) {
+            this.in = in;
+            this.total = total;
+        }
+
+        /** Дочитать в batch до max записей; false — данных больше нет. */
+        boolean next(CdrBatch batch, int max) throws IOException {
+            batch.clear();
+            while (batch.size() < max) {
+                int eol = findEol();
+                if (eol < 0) break;
+                int from = pos, to = eol;
+                pos = eol + 1;
+                consumed += pos - from;
+                lineNo++;
+                if (to > from && buf[to - 1] == '\r') to--;
+                if (!started) {
+                    from += CdrLineParser.bom(buf, from, to);
+                    if (CdrLineParser.isBlank(buf, from, to)) continue;
+                    CdrLineParser.checkHeader(buf, from, to, lineNo);
+                    started = true;
+                    continue;
+                }
+                if (CdrLineParser.isBlank(buf, from, to)) continue;
+                try {
+                    parser.parse(buf, from, to, batch);
+                } catch (TariffException e) {
+                    throw new TariffException("Строка " + lineNo + ": " + e.getMessage());
+                }
+            }
+            return batch.size() > 0;
+        }
+
+        /**
+         * Конец очередной строки в buf (последняя строка без перевода — конец данных);
+         * при нехватке буфер сдвигается и дочитывается. -1 — строк больше нет.
+         */
+        private int findEol() throws IOException {
+            int scan = pos;
+            while (true) {
+                for (int i = scan; i < limit; i++) {
+                    if (buf[i] == '\n') return i;
+                }
+                if (eof) {
+                    if (pos == limit) return -1;
+                    if (limit == buf.length) buf = Arrays.copyOf(buf, buf.length + 1);
+                    buf[limit] = '\n'; // последняя строка без перевода
+                    return limit++;
+                }
+                scan = limit - pos;
+                if (pos > 0) {
+                    System.arraycopy(buf, pos, buf, 0, limit - pos);
+                    limit -= pos;
+                    pos = 0;
+                } else if (limit == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2); // строка длиннее буфера
+                }
+                int n = in.read(buf, limit, buf.length - limit);
+                if (n < 0) eof = true;
+                else limit += n;
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package atc.io;
+
+import atc.model.TariffType;
+import atc.rating.CdrBatch;
+import atc.service.TariffException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Разбор строки звонка «город;тип;секунды» прямо из байтов в CdrBatch.
+ * Город декодируется из UTF-8 в переиспользуемый char[], так что на строку
+ * ничего не аллоцируется. У каждого потока свой экземпляр.
+ */
+final class CdrLineParser {
+    /** Декодированный город текущей строки. */
+    private char[] city = new char[64];
+
+    /**
+     * Строка buf[from, to) без перевода строки → запись в batch.
+     * Ошибка — TariffException без номера строки (его добавляет вызывающий).
+     */
+    void parse(byte[] buf, int from, int to, CdrBatch batch) {
+        int s1 = indexOf(buf, from, to);
+        int s2 = s1 < 0 ? -1 : indexOf(buf, s1 + 1, to);
+        if (s2 < 0) throw new TariffException("ожидалось 3 поля (city;type;duration)");
+        int s3 = indexOf(buf, s2 + 1, to);
+        if (s3 < 0) s3 = to;
+
+        int len = decodeCity(buf, from, s1);
+        if (len == 0) throw new TariffException("город не указан");
+        TariffType type = type(buf, s1 + 1, s2);
+        if (type == null) throw new TariffException("неизвестный тип тарифа: " + text(buf, s1 + 1, s2));
+        long seconds = seconds(buf, s2 + 1, s3);
+        if (seconds < 0) throw new TariffException("неверная длительность: " + text(buf, s2 + 1, s3));
+        batch.add(city, 0, len, type, seconds);
+    }
+
+    /** Аналог line.trim().isEmpty(): только байты ≤ ' '. */
+    static boolean isBlank(byte[] buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((buf[i] & 0xFF) > ' ') return false;
+        }
+        return true;
+    }
+
+    /** Первая непустая строка файла: city;type;duration (лишние поля допускаются). */
+    static void checkHeader(byte[] buf, int from, int to, int lineNo) {
+        String[] p = text(buf, from, to).split(";", -1);
+        if (p.length < 3 || !p[0].trim().equalsIgnoreCase("city") || !p[1].trim().equalsIgnoreCase("type")
+                || !p[2].trim().equalsIgnoreCase("duration")) {
+            throw new TariffException("Некорректная шапка CSV в строке " + lineNo
+                    + ". Ожидалось: city;type;duration");
+        }
+    }
+
+    /** Длина BOM в начале buf[from, to): 3 или 0. */
+    static int bom(byte[] buf, int from, int to) {
+        return from + 3 <= to && buf[from] == (byte) 0xEF && buf[from + 1] == (byte) 0xBB
+                && buf[from + 2] == (byte) 0xBF ? 3 : 0;
+    }
+
+    private static int indexOf(byte[] buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == ';') return i;
+        }
+        return -1;
+    }
+
+    private static String text(byte[] buf, int from, int to) {
+        return new String(buf, from, to - from, StandardCharsets.UTF_8).trim();
+    }
+
+    /** Город без крайних байтов ≤ ' ' в city[0, len); неверные байты UTF-8 → U+FFFD. */
+    private int decodeCity(byte[] buf, int from, int to) {
+        while (from < to && (buf[from] & 0xFF) <= ' ') from++;
+        while (to > from && (buf[to - 1] & 0xFF) <= ' ') to--;
+        if (city.length < to - from) city = new char[Math.max(to - from, city.length * 2)];
+        int n = 0;
+        for (int i = from; i < to; ) {
+            int b = buf[i] & 0xFF;
+            if (b < 0x80) {
+                city[n++] = (char) b;
+                i++;
+                continue;
+            }
+            int extra = b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : b >= 0xC0 ? 1 : -1;
+            if (extra < 0 || i + extra >= to) { // не начало символа или обрезанный хвост
+                city[n++] = '\uFFFD';
+                i++;
+                continue;
+            }
+            int cp = b & (0x3F >> extra);
+            boolean ok = true;
+            for (int k = 1; k <= extra; k++) {
+                int c = buf[i + k] & 0xFF;
+                if ((c & 0xC0) != 0x80) { ok = false; break; }
+                cp = (cp << 6) | (c & 0x3F);
+            }
+            if (!ok) {
+                city[n++] = '\uFFFD';
+                i++;
+            } else if (cp >= 0x10000) {
+                city[n++] = Character.highSurrogate(cp);
+                city[n++] = Character.lowSurrogate(cp);
+                i += extra + 1;
+            } else {
+                city[n++] = (char) cp;
+                i += extra + 1;
+            }
+        }
+        return n;
+    }
+
+    /** REGULAR / PRIVILEGED без учёта регистра (ASCII), с обрезкой пробелов. */
+    private static TariffType type(byte[] buf, int from, int to) {
+        while (from < to && (buf[from] & 0xFF) <= ' ') from++;
+        while (to > from && (buf[to - 1] & 0xFF) <= ' ') to--;
+        if (equalsAsciiIgnoreCase(buf, from, to, "REGULAR")) return TariffType.REGULAR;
+        if (equalsAsciiIgnoreCase(buf, from, to, "PRIVILEGED")) return TariffType.PRIVILEGED;
+        return null;
+    }
+
+    private static boolean equalsAsciiIgnoreCase(byte[] buf, int from, int to, String upper) {
+        if (to - from != upper.length()) return false;
+        for (int i = 0; i < upper.length(); i++) {
+            int b = buf[from + i];
+            if (b >= 'a' && b <= 'z') b -= 'a' - 'A';
+            if (b != upper.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** Целое число секунд ≥ 0 (пробелы по краям допускаются); -1 — не число. */
+    private static long seconds(byte[] buf, int from, int to) {
+        while (from < to && (buf[from] & 0xFF) <= ' ') from++;
+        while (to > from && (buf[to - 1] & 0xFF) <= ' ') to--;
+        if (from == to || to - from > 12) return -1;
+        long v = 0;
+        for (int i = from; i < to; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+}
@@ -0,0 +1,210 @@
+package atc.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Запись CSV прямо в FileChannel через большой буфер.
+ * Числа пишутся в фиксированной точке без Formatter и боксинга,
+ * строки кодируются в UTF-8 посимвольно — на строку данных ничего не аллоцируется.
+ */
+final class CsvChannelWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final long[] POW10 = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+
+    /** null — запись в память. */
+    private final FileChannel channel;
+    private ByteBuffer buf;
+
+    CsvChannelWriter(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Запись в память: буфер растёт по мере надобности, а готовый кусок
+     * переносится в файловый writer через append(...). Для параллельного вывода.
+     */
+    CsvChannelWriter(int capacity) {
+        this.channel = null;
+        this.buf = ByteBuffer.allocate(capacity);
+    }
+
+    /** Дописать накопленное в памяти содержимое other и очистить его. */
+    CsvChannelWriter append(CsvChannelWriter other) throws IOException {
+        ByteBuffer src = other.buf;
+        src.flip();
+        if (buf.remaining() < src.remaining()) flush();
+        if (buf.remaining() >= src.remaining() || channel == null) {
+            ensure(src.remaining());
+            buf.put(src);
+        } else {
+            while (src.hasRemaining()) channel.write(src);
+        }
+        src.clear();
+        return this;
+    }
+
+    /** BOM для Excel. */
+    CsvChannelWriter bom() throws IOException {
+        ensure(3);
+        buf.put((byte) 0xEF).put((byte) 0xBB).put((byte) 0xBF);
+        return this;
+    }
+
+    CsvChannelWriter ascii(String s) throws IOException {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) buf.put((byte) s.charAt(i));
+        return this;
+    }
+
+    CsvChannelWriter sep() throws IOException {
+        ensure(1);
+        buf.put((byte) ';');
+        return this;
+    }
+
+    CsvChannelWriter newline() throws IOException {
+        ensure(NEWLINE.length);
+        buf.put(NEWLINE);
+        return this;
+    }
+
+    /** Текстовое поле в UTF-8; ';' внутри заменяется на ',' (как CsvIO.escape). */
+    CsvChannelWriter text(String s) throws IOException {
+        if (s == null) return this;
+        ensure(s.length() * 3 + 1);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            char next = i + 1 < s.length() ? s.charAt(i + 1) : 0;
+            i += utf8(c, next);
+        }
+        return this;
+    }
+
+    /** То же для chars[from, to) — без создания строки. */
+    CsvChannelWriter text(char[] chars, int from, int to) throws IOException {
+        ensure((to - from) * 3 + 1);
+        for (int i = from; i < to; i++) {
+            char next = i + 1 < to ? chars[i + 1] : 0;
+            i += utf8(chars[i], next);
+        }
+        return this;
+    }
+
+    /** Кодирует c (и next, если это пара суррогатов); возвращает, сколько лишних символов съедено. */
+    private int utf8(char c, char next) {
+        if (c == ';') c = ',';
+        if (c < 0x80) {
+            buf.put((byte) c);
+        } else if (c < 0x800) {
+            buf.put((byte) (0xC0 | (c >> 6)))
+               .put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+            int cp = Character.toCodePoint(c, next);
+            buf.put((byte) (0xF0 | (cp >> 18)))
+               .put((byte) (0x80 | ((cp >> 12) & 0x3F)))
+               .put((byte) (0x80 | ((cp >> 6) & 0x3F)))
+               .put((byte) (0x80 | (cp & 0x3F)));
+            return 1;
+        } else if (Character.isSurrogate(c)) {
+            buf.put((byte) '?'); // одиночный суррогат — как у стандартного кодировщика
+        } else {
+            buf.put((byte) (0xE0 | (c >> 12)))
+               .put((byte) (0x80 | ((c >> 6) & 0x3F)))
+               .put((byte) (0x80 | (c & 0x3F)));
+        }
+        return 0;
+    }
+
+    /** Целое число. */
+    CsvChannelWriter number(long v) throws IOException {
+        ensure(21);
+        if (v < 0) buf.put((byte) '-');
+        digits(Math.abs(v), 1);
+        return this;
+    }
+
+    /** Точная десятичная дробь units / 10^scale (например, копейки → рубли при scale = 2). */
+    CsvChannelWriter decimal(long units, int scale) throws IOException {
+        ensure(22 + scale);
+        if (units < 0) buf.put((byte) '-');
+        long abs = Math.abs(units);
+        digits(abs / POW10[scale], 1);
+        if (scale > 0) {
+            buf.put((byte) '.');
+            digits(abs % POW10[scale], scale);
+        }
+        return this;
+    }
+
+    /**
+     * Число с ровно scale знаками после точки, как %.{scale}f в Locale.ROOT: округление
+     * половины вверх по кратчайшей десятичной записи v (1.005 → 1.01), а не по двоичному значению.
+     * Обычно хватает Math.round; у границы «ровно половина» и для больших чисел — BigDecimal.
+     */
+    CsvChannelWriter fixed(double v, int scale) throws IOException {
+        ensure(24 + scale);
+        double a = Math.abs(v);
+        double d = a * POW10[scale];
+        long scaled = d < 1e9 && Math.abs(d - Math.floor(d) - 0.5) > 1e-4
+                ? Math.round(d)
+                : BigDecimal.valueOf(a).setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        if (Math.copySign(1.0, v) < 0) buf.put((byte) '-'); // и «-0.00», как у printf
+        digits(scaled / POW10[scale], 1);
+        if (scale > 0) {
+            buf.put((byte) '.');
+            digits(scaled % POW10[scale], scale);
+        }
+        return this;
+    }
+
+    /** Десятичные цифры n, дополненные нулями слева до minWidth. */
+    private void digits(long n, int minWidth) {
+        int width = 1;
+        for (long p = 10; p <= n && width < 19; p *= 10) width++;
+        for (int i = width; i < minWidth; i++) buf.put((byte) '0');
+        int start = buf.position();
+        buf.position(start + width);
+        for (int i = start + width - 1; i >= start; i--) {
+            buf.put(i, (byte) ('0' + n % 10));
+            n /= 10;
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buf.remaining() >= bytes) return;
+        if (channel != null) {
+            flush();
+        } else {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + bytes));
+            buf.flip();
+            buf = bigger.put(buf);
+        }
+    }
+
+    void flush() throws IOException {
+        if (channel == null) return;
+        buf.flip();
+        while (buf.hasRemaining()) channel.write(buf);
+        buf.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) return;
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
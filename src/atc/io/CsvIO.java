@@ -1,19 +1,99 @@
 package atc.io;
 
+import atc.data.TariffFilter;
+import atc.data.TariffRepository;
+import atc.data.TariffRowVisitor;
 import atc.model.Tariff;
 import atc.model.TariffType;
+import atc.service.ProgressMonitor;
 import atc.service.TariffException;
 import atc.service.TariffManager;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
 public class CsvIO {
 
+    /** Сколько строк импорта пишется в БД одной транзакцией. */
+    static final int IMPORT_CHUNK = 5000;
+
+    private static final String HEADER = "city;type;price;discount";
+
+    /** С какого размера файла импорт читает его через отображение в память. */
+    static final long MAPPED_IMPORT_THRESHOLD = 32L << 20;
+
+    /** Через сколько строк экспорт сообщает о ходе и проверяет отмену (степень двойки). */
+    private static final int PROGRESS_STEP = 4096;
+
     /** Сохранение в CSV (UTF-8 с BOM), разделитель ';', десятичная точка. */
     public static void save(File file, List<Tariff> items) {
+        writeAtomically(file, HEADER, out -> {
+            for (Tariff t : items) {
+                writeRow(out, t.getCity(), t.getType(), t.getPricePerMinute(), t.getDiscountPercent());
+            }
+        });
+    }
+
+    /**
+     * Потоковый экспорт того же формата, что и save(...): строки идут курсором хранилища
+     * менеджера (TariffManager.forEachRow, в SQLite — ResultSet «только вперёд») прямо в файл,
+     * без сборки списка и без снимка — память не зависит от размера таблицы.
+     */
+    public static void export(File file, TariffManager manager) {
+        export(file, manager, ProgressMonitor.NONE);
+    }
+
+    /**
+     * Экспорт с ходом «строк записано из COUNT(*)». При отмене временный файл
+     * удаляется, целевой остаётся прежним; бросается CancellationException.
+     */
+    public static void export(File file, TariffManager manager, ProgressMonitor monitor) {
+        export(file, manager.count(TariffFilter.all()), manager::forEachRow, monitor);
+    }
+
+    /** То же прямо из хранилища, без менеджера (пакетный режим). */
+    public static void export(File file, TariffRepository repo, ProgressMonitor monitor) {
+        export(file, repo.count(TariffFilter.all()), repo::forEachRow, monitor);
+    }
+
+    /** Источник строк экспорта: менеджер или хранилище. */
+    private interface RowSource {
+        void forEachRow(TariffRowVisitor visitor);
+    }
+
+    private static void export(File file, long total, RowSource source, ProgressMonitor monitor) {
+        writeAtomically(file, HEADER, out -> {
+            long[] rows = {0};
+            try {
+                source.forEachRow((id, city, type, price, discount) -> {
+                    try {
+                        writeRow(out, city, type, price, discount);
+                        if ((++rows[0] & (PROGRESS_STEP - 1)) == 0) {
+                            monitor.progress(rows[0], total);
+                            monitor.checkCancelled();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    interface RowsWriter {
+        void write(CsvChannelWriter out) throws IOException;
+    }
+
+    /**
+     * Пишем во временный файл рядом (BOM, шапка, строки) и подменяем им целевой
+     * (rename, иначе копирование). При любой ошибке или отмене целевой файл не тронут.
+     */
+    static void writeAtomically(File file, String header, RowsWriter rows) {
         try {
             File dir = file.getParentFile();
             if (dir != null && !dir.exists() && !dir.mkdirs()) {
@@ -21,20 +101,14 @@ public class CsvIO {
             }
 
             File tmp = File.createTempFile("atc_", ".csv", dir);
-            try (PrintWriter out = new PrintWriter(
-                    new OutputStreamWriter(new FileOutputStream(tmp, false), StandardCharsets.UTF_8))) {
-
-                // BOM для Excel
-                out.write('\uFEFF');
-                out.println("city;type;price;discount");
-
-                for (Tariff t : items) {
-                    out.printf(Locale.ROOT, "%s;%s;%.4f;%.2f%n",
-                            escape(t.getCity()),
-                            t.getType().name(),
-                            t.getPricePerMinute(),
-                            t.getDiscountPercent());
-                }
+            try (CsvChannelWriter out = new CsvChannelWriter(tmp)) {
+                out.bom();
+                out.ascii(header).newline();
+                rows.write(out);
+            } catch (IOException | RuntimeException e) {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+                throw e;
             }
 
             if (!tmp.renameTo(file)) {
@@ -51,99 +125,149 @@ public class CsvIO {
         }
     }
 
+    /** Строка данных: city;type;price(4 знака);discount(2 знака). */
+    private static void writeRow(CsvChannelWriter out, String city, TariffType type,
+                                 double price, double discount) throws IOException {
+        out.text(city).sep()
+           .ascii(type.name()).sep()
+           .fixed(price, 4).sep()
+           .fixed(discount, 2).newline();
+    }
+
     /**
      * Импорт «добавлением» ИМЕННО В БД:
-     *   - читаем CSV;
-     *   - для каждой строки создаём Tariff;
-     *   - добавляем его через TariffManager.add(...);
+     *   - читаем CSV (отдельный поток) и разбираем строки в Tariff (пул потоков);
+     *   - копим пакет и добавляем его через TariffManager.addAll(...)
+     *     (одна транзакция на IMPORT_CHUNK строк);
      *   - дубликаты считаем «пропущенными», а не ошибкой.
      *
-     * Текущие данные в БД НЕ очищаются.
+     * Текущие данные в БД НЕ очищаются. При ошибке в строке всё, что было
+     * до неё, остаётся добавленным (как и при построчном импорте).
      */
     public static ImportResult loadAdd(File file, TariffManager manager) {
-        int added = 0, skipped = 0, total = 0;
-
-        try (BufferedReader br = new BufferedReader(
-                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
-
-            String line;
-            int lineNo = 0;
-
-            // 1) шапка
-            String headerLine = null;
-            while ((line = br.readLine()) != null) {
-                lineNo++;
-                line = stripBom(line);
-                if (!line.trim().isEmpty()) {
-                    headerLine = line;
-                    break;
-                }
-            }
-            if (headerLine == null) {
-                // пустой файл
-                return new ImportResult(0, 0, 0);
-            }
-            if (!isValidHeader(headerLine)) {
-                throw new TariffException(
-                        "Некорректная шапка CSV в строке " + lineNo +
-                                ". Ожидалось: city;type;price;discount");
-            }
+        return loadAdd(file, manager, ProgressMonitor.NONE);
+    }
 
-            // 2) данные
-            while ((line = br.readLine()) != null) {
-                lineNo++;
-                if (line.trim().isEmpty()) continue;
+    /**
+     * Импорт с ходом в байтах файла. Отмена проверяется между пакетами:
+     * уже добавленные этим импортом строки удаляются, бросается CancellationException.
+     */
+    public static ImportResult loadAdd(File file, TariffManager manager, ProgressMonitor monitor) {
+        if (file.length() >= MAPPED_IMPORT_THRESHOLD) {
+            return loadAddMapped(file, manager, monitor);
+        }
+        // чтение, разбор и запись идут параллельно; см. CsvImportPipeline
+        try {
+            return CsvImportPipeline.run(file, new ImportState(manager, monitor, file.length()));
+        } finally {
+            manager.publishDeferred(); // и при ошибке: записанные пакеты остаются, как раньше
+        }
+    }
 
-                String[] parts = line.split(";", -1);
-                if (parts.length < 4) {
-                    throw new TariffException("Строка " + lineNo + ": ожидалось 4 поля (city;type;price;discount)");
-                }
+    /**
+     * Тот же импорт, но файл отображается в память и разбирается прямо из байтов
+     * параллельно по диапазонам строк (см. MappedCsvReader). Для очень больших файлов.
+     */
+    public static ImportResult loadAddMapped(File file, TariffManager manager) {
+        return loadAddMapped(file, manager, ProgressMonitor.NONE);
+    }
 
-                try {
-                    String city = unescape(parts[0]).trim();
-                    TariffType type = TariffType.valueOf(parts[1].trim().toUpperCase(Locale.ROOT));
-                    double price = parseDouble(parts[2]);
-                    double disc  = parseDouble(parts[3]);
-
-                    // строгая валидация (как в ТарифМенеджере)
-                    TariffManager.validateCity(city);
-                    TariffManager.validatePrice(price);
-                    if (type == TariffType.PRIVILEGED) {
-                        TariffManager.validateDiscount(disc);
-                    } else if (Math.abs(disc) > 1e-9) {
-                        throw new TariffException("для обычного тарифа скидка должна быть 0");
-                    }
+    public static ImportResult loadAddMapped(File file, TariffManager manager, ProgressMonitor monitor) {
+        try {
+            return MappedCsvReader.run(file, new ImportState(manager, monitor, file.length()));
+        } finally {
+            manager.publishDeferred();
+        }
+    }
 
-                    Tariff t = new Tariff(city, type, price, disc);
-                    total++;
+    /** Разбор и строгая валидация одной строки данных (как в TariffManager). */
+    static Tariff parseLine(String line, int lineNo) {
+        String[] parts = line.split(";", -1);
+        if (parts.length < 4) {
+            throw new TariffException("Строка " + lineNo + ": ожидалось 4 поля (city;type;price;discount)");
+        }
 
-                    try {
-                        manager.add(t);   // добавляем через БИЗНЕС-ЛОГИКУ -> попадёт в БД
-                        added++;
-                    } catch (TariffException ex) {
-                        String msg = ex.getMessage();
-                        if (msg != null && msg.toLowerCase(Locale.ROOT).contains("уже существует")) {
-                            skipped++; // дубль – просто пропускаем
-                        } else {
-                            throw new TariffException("Строка " + lineNo + ": " + ex.getMessage());
-                        }
-                    }
-                } catch (TariffException | NumberFormatException e) {
-                    throw new TariffException("Строка " + lineNo + ": " + e.getMessage());
-                } catch (IllegalArgumentException e) {
-                    throw new TariffException("Строка " + lineNo + ": неизвестный тип тарифа: " + parts[1]);
+        try {
+            String city = unescape(parts[0]).trim();
+            TariffType type = TariffType.valueOf(parts[1].trim().toUpperCase(Locale.ROOT));
+            double price = parseDouble(parts[2]);
+            double disc  = parseDouble(parts[3]);
+
+            TariffManager.validateCity(city);
+            TariffManager.validatePrice(price);
+            if (type == TariffType.PRIVILEGED) {
+                TariffManager.validateDiscount(disc);
+            } else if (Math.abs(disc) > 1e-9) {
+                throw new TariffException("для обычного тарифа скидка должна быть 0");
+            }
+
+            return new Tariff(city, type, price, disc);
+        } catch (TariffException | NumberFormatException e) {
+            throw new TariffException("Строка " + lineNo + ": " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new TariffException("Строка " + lineNo + ": неизвестный тип тарифа: " + parts[1]);
+        }
+    }
+
+    /**
+     * Сторона записи импорта (вызывающий поток): счётчики, ход и отмена.
+     * Пока импорт можно отменить, запоминает добавленные строки, чтобы удалить их при отмене.
+     */
+    static final class ImportState {
+        private final TariffManager manager;
+        private final ProgressMonitor monitor;
+        private final long size;
+        private final List<Tariff> inserted = new ArrayList<>();
+        private int added, skipped, total;
+
+        ImportState(TariffManager manager, ProgressMonitor monitor, long size) {
+            this.manager = manager;
+            this.monitor = monitor;
+            this.size = size;
+        }
+
+        /** Пишет накопленный пакет в БД и очищает его; дубли (null в ответе) — «пропущенные». */
+        void write(List<Tariff> batch, int firstLine, int lastLine) {
+            total += batch.size();
+            if (batch.isEmpty()) return;
+            checkCancelled();
+            List<Tariff> saved;
+            try {
+                // в снимок менеджера пакеты вливаются пачками, не по одному (см. addAllDeferred)
+                saved = manager.addAllDeferred(batch);
+            } catch (TariffException ex) {
+                throw new TariffException("Строки " + firstLine + "–" + lastLine + ": " + ex.getMessage());
+            }
+            for (Tariff t : saved) {
+                if (t != null) {
+                    added++;
+                    if (monitor != ProgressMonitor.NONE) inserted.add(t);
+                } else {
+                    skipped++;
                 }
             }
-        } catch (IOException e) {
-            throw new TariffException("Ошибка чтения: " + e.getMessage());
+            batch.clear();
+        }
+
+        /** Записано всё до смещения offset в файле. */
+        void progress(long offset) {
+            monitor.progress(offset, size);
+            checkCancelled();
         }
 
-        return new ImportResult(added, skipped, total);
+        private void checkCancelled() {
+            if (!monitor.isCancelled()) return;
+            manager.removeAll(inserted);
+            inserted.clear();
+            monitor.checkCancelled();
+        }
+
+        ImportResult result() { return new ImportResult(added, skipped, total); }
     }
 
     // ---------- helpers ----------
 
-    private static boolean isValidHeader(String line) {
+    static boolean isValidHeader(String line) {
         if (line == null) return false;
         String s = stripBom(line).trim();
         String[] p = s.split(";", -1);
@@ -154,23 +278,18 @@ public class CsvIO {
                 && p[3].trim().equalsIgnoreCase("discount");
     }
 
-    private static String stripBom(String s) {
+    static String stripBom(String s) {
         return (s != null && !s.isEmpty() && s.charAt(0) == '\uFEFF') ? s.substring(1) : s;
     }
 
     /** Допускаем запятую (заменяем на точку), удаляем пробелы-разделители. */
-    private static double parseDouble(String s) {
+    static double parseDouble(String s) {
         String t = s == null ? "" : s.trim();
         t = t.replace("\u00A0", "").replace(" ", "");
         if (t.indexOf(',') >= 0) t = t.replace(',', '.');
         return Double.parseDouble(t);
     }
 
-    private static String escape(String s) {
-        if (s == null) return "";
-        return s.replace(";", ",");
-    }
-
     private static String unescape(String s) { return s; }
 
     /** Результат импорта. */
@@ -0,0 +1,250 @@
+package atc.io;
+
+import atc.model.Tariff;
+import atc.service.TariffException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Импорт CSV конвейером из трёх стадий:
+ *   чтение файла (1 поток) → разбор и валидация строк (пул) → запись в БД (вызывающий поток).
+ *
+ * Стадии связаны ограниченными очередями, поэтому чтение не убегает далеко вперёд записи.
+ * Пакеты пишутся строго в порядке файла: итог и сообщения об ошибках (с номерами строк)
+ * такие же, как при последовательном импорте. TariffManager трогает только вызывающий поток.
+ */
+final class CsvImportPipeline {
+
+    private CsvImportPipeline() {}
+
+    /** Пакет сырых (непустых) строк с их номерами в файле; endOffset — сколько байт файла прочитано. */
+    private static final class RawChunk {
+        final int seq;
+        final String[] lines;
+        final int[] lineNos;
+        final int size;
+        final long endOffset;
+        final boolean last;
+        final TariffException error;
+
+        RawChunk(int seq, String[] lines, int[] lineNos, int size, long endOffset,
+                 boolean last, TariffException error) {
+            this.seq = seq;
+            this.lines = lines;
+            this.lineNos = lineNos;
+            this.size = size;
+            this.endOffset = endOffset;
+            this.last = last;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Разобранный пакет: тарифы (до первой ошибочной строки), диапазон строк файла
+     * и ошибка, если она была. last — последний пакет файла; endOffset — позиция в файле
+     * после пакета (для хода импорта).
+     */
+    static final class ParsedChunk {
+        final int seq;
+        final List<Tariff> tariffs;
+        final int firstLine, lastLine;
+        final long endOffset;
+        final TariffException error;
+        final boolean last;
+
+        ParsedChunk(int seq, List<Tariff> tariffs, int firstLine, int lastLine, long endOffset,
+                    TariffException error, boolean last) {
+            this.seq = seq;
+            this.tariffs = tariffs;
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.endOffset = endOffset;
+            this.error = error;
+            this.last = last;
+        }
+    }
+
+    static CsvIO.ImportResult run(File file, CsvIO.ImportState state) {
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        BlockingQueue<RawChunk> raw = new ArrayBlockingQueue<>(workers * 2);
+        BlockingQueue<ParsedChunk> parsed = new ArrayBlockingQueue<>(workers * 2);
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers + 1, threads("csv-import"));
+        try {
+            pool.execute(() -> read(file, raw));
+            for (int i = 0; i < workers; i++) {
+                pool.execute(() -> parse(raw, parsed));
+            }
+            return write(parsed, state);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TariffException("Импорт прерван");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // ---------- стадия 1: чтение ----------
+
+    private static void read(File file, BlockingQueue<RawChunk> out) {
+        int seq = 0;
+        CountingInputStream in = null;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                in = new CountingInputStream(new FileInputStream(file)), StandardCharsets.UTF_8), 1 << 16)) {
+
+            String line;
+            int lineNo = 0;
+
+            // шапка
+            String headerLine = null;
+            while ((line = br.readLine()) != null) {
+                lineNo++;
+                line = CsvIO.stripBom(line);
+                if (!line.trim().isEmpty()) {
+                    headerLine = line;
+                    break;
+                }
+            }
+            if (headerLine == null) {
+                out.put(new RawChunk(seq, new String[0], new int[0], 0, in.count, true, null)); // пустой файл
+                return;
+            }
+            if (!CsvIO.isValidHeader(headerLine)) {
+                throw new TariffException(
+                        "Некорректная шапка CSV в строке " + lineNo +
+                                ". Ожидалось: city;type;price;discount");
+            }
+
+            // данные — пакетами по IMPORT_CHUNK непустых строк
+            String[] lines = new String[CsvIO.IMPORT_CHUNK];
+            int[] lineNos = new int[CsvIO.IMPORT_CHUNK];
+            int n = 0;
+            while ((line = br.readLine()) != null) {
+                lineNo++;
+                if (line.trim().isEmpty()) continue;
+                lines[n] = line;
+                lineNos[n] = lineNo;
+                if (++n == lines.length) {
+                    out.put(new RawChunk(seq++, lines, lineNos, n, in.count, false, null));
+                    lines = new String[CsvIO.IMPORT_CHUNK];
+                    lineNos = new int[CsvIO.IMPORT_CHUNK];
+                    n = 0;
+                }
+            }
+            out.put(new RawChunk(seq, lines, lineNos, n, in.count, true, null));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // запись завершилась раньше — просто выходим
+        } catch (IOException e) {
+            fail(out, seq, new TariffException("Ошибка чтения: " + e.getMessage()));
+        } catch (TariffException e) {
+            fail(out, seq, e);
+        } catch (RuntimeException e) {
+            fail(out, seq, new TariffException("Ошибка чтения: " + e));
+        }
+    }
+
+    private static void fail(BlockingQueue<RawChunk> out, int seq, TariffException error) {
+        try {
+            out.put(new RawChunk(seq, new String[0], new int[0], 0, 0, true, error));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------- стадия 2: разбор и валидация ----------
+
+    private static void parse(BlockingQueue<RawChunk> in, BlockingQueue<ParsedChunk> out) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                out.put(parseChunk(in.take()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ParsedChunk parseChunk(RawChunk raw) {
+        List<Tariff> tariffs = new ArrayList<>(raw.size);
+        int first = raw.size > 0 ? raw.lineNos[0] : 0;
+        int last = raw.size > 0 ? raw.lineNos[raw.size - 1] : 0;
+        TariffException error = raw.error;
+
+        for (int i = 0; i < raw.size && error == null; i++) {
+            try {
+                tariffs.add(CsvIO.parseLine(raw.lines[i], raw.lineNos[i]));
+            } catch (TariffException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new TariffException("Строка " + raw.lineNos[i] + ": " + e);
+            }
+            if (error != null) last = raw.lineNos[i] - 1;
+        }
+        return new ParsedChunk(raw.seq, tariffs, first, last, raw.endOffset, error, raw.last || error != null);
+    }
+
+    // ---------- стадия 3: запись ----------
+
+    /**
+     * Забирает разобранные пакеты, восстанавливает порядок файла и пишет их в БД.
+     * Ошибочный пакет: сначала пишем строки до ошибки, затем бросаем её.
+     */
+    static CsvIO.ImportResult write(BlockingQueue<ParsedChunk> in, CsvIO.ImportState state)
+            throws InterruptedException {
+        Map<Integer, ParsedChunk> early = new HashMap<>();
+        int next = 0;
+
+        while (true) {
+            ParsedChunk c = early.remove(next);
+            if (c == null) {
+                c = in.take();
+                if (c.seq != next) {
+                    early.put(c.seq, c);
+                    continue;
+                }
+            }
+            next++;
+
+            state.write(c.tariffs, c.firstLine, c.lastLine);
+            if (c.error != null) throw c.error;
+            if (c.last) return state.result();
+            state.progress(c.endOffset);
+        }
+    }
+
+    /** Считает байты, которые BufferedReader забрал из файла (с точностью до его буфера). */
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) { super(in); }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    static ThreadFactory threads(String prefix) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,380 @@
+package atc.io;
+
+import atc.model.Tariff;
+import atc.model.TariffType;
+import atc.service.TariffException;
+import atc.service.TariffManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Импорт очень больших CSV через отображение файла в память (FileChannel.map).
+ *
+ * Файл режется на диапазоны по границам строк; диапазоны разбираются параллельно
+ * прямо из байтов: ';' и переводы строк ищутся побайтно, цена и скидка читаются
+ * из цифр без промежуточных строк, в String декодируется только город.
+ * Строки «необычного» вида (экспоненты, ошибки и т.п.) уходят в CsvIO.parseLine,
+ * поэтому результат и тексты ошибок те же, что и у обычного импорта.
+ */
+final class MappedCsvReader {
+    /** Примерный размер одного диапазона (реальная граница — ближайший '\n' после). */
+    private static final long RANGE_SIZE = 16L << 20;
+    /** Сколько разобранных пакетов диапазона может ждать записи. */
+    private static final int QUEUE_CAPACITY = 4;
+
+    private MappedCsvReader() {}
+
+    static CsvIO.ImportResult run(File file, CsvIO.ImportState state) {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+
+            long[] header = findHeader(ch, size); // {начало данных, номер строки шапки}
+            if (header == null) return new CsvIO.ImportResult(0, 0, 0); // пустой файл
+            if (header[0] < 0) return CsvImportPipeline.run(file, state); // шапка где-то далеко
+
+            long[] bounds = split(ch, header[0], size, RANGE_SIZE);
+            int ranges = bounds.length - 1;
+
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), CsvImportPipeline.threads("csv-mmap"));
+            try {
+                // 1) номера строк: сколько строк в каждом диапазоне (быстрый побайтный проход)
+                List<Future<Integer>> counts = new ArrayList<>(ranges);
+                for (int r = 0; r < ranges; r++) {
+                    long from = bounds[r], to = bounds[r + 1];
+                    counts.add(pool.submit(() -> countLines(ch, from, to)));
+                }
+                int[] base = new int[ranges];
+                int lineNo = (int) header[1];
+                for (int r = 0; r < ranges; r++) {
+                    base[r] = lineNo;
+                    lineNo += counts.get(r).get();
+                }
+
+                // 2) разбор диапазонов параллельно, у каждого своя ограниченная очередь
+                List<BlockingQueue<CsvImportPipeline.ParsedChunk>> queues = new ArrayList<>(ranges);
+                for (int r = 0; r < ranges; r++) {
+                    BlockingQueue<CsvImportPipeline.ParsedChunk> q = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+                    queues.add(q);
+                    long from = bounds[r], to = bounds[r + 1];
+                    int first = base[r];
+                    pool.execute(() -> parseRange(ch, from, to, first, q));
+                }
+
+                // 3) запись — в вызывающем потоке, диапазон за диапазоном
+                return write(queues, state);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw new TariffException("Ошибка чтения: " + (cause != null ? cause.getMessage() : e.getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TariffException("Импорт прерван");
+            } finally {
+                pool.shutdownNow();
+            }
+        } catch (IOException e) {
+            throw new TariffException("Ошибка чтения: " + e.getMessage());
+        }
+    }
+
+    // ---------- шапка и разбиение ----------
+
+    /**
+     * Ищет шапку так же, как построчный импорт (BOM и пустые строки пропускаются).
+     * null — в файле нет непустых строк; {-1, 0} — шапка не в первом диапазоне.
+     */
+    private static long[] findHeader(FileChannel ch, long size) throws IOException {
+        long len = Math.min(size, RANGE_SIZE);
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, len);
+        int pos = 0, end = (int) len;
+        int lineNo = 0;
+        while (pos < end) {
+            int eol = lineEnd(buf, pos, end);
+            if (eol == end && len < size) return new long[]{-1, 0};
+            lineNo++;
+            String line = CsvIO.stripBom(decode(buf, pos, eol));
+            pos = nextLine(buf, eol, end);
+            if (!line.trim().isEmpty()) {
+                if (!CsvIO.isValidHeader(line)) {
+                    throw new TariffException(
+                            "Некорректная шапка CSV в строке " + lineNo +
+                                    ". Ожидалось: city;type;price;discount");
+                }
+                return new long[]{pos, lineNo};
+            }
+        }
+        return len < size ? new long[]{-1, 0} : null;
+    }
+
+    /** Границы диапазонов примерно по rangeSize байт: каждая (кроме конца файла) стоит сразу после '\n'. */
+    static long[] split(FileChannel ch, long from, long size, long rangeSize) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(from);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long pos = from;
+        while (size - pos > rangeSize) {
+            long p = pos + rangeSize;
+            long cut = -1;
+            while (cut < 0 && p < size) {
+                probe.clear();
+                int n = ch.read(probe, p);
+                if (n <= 0) break;
+                for (int i = 0; i < n; i++) {
+                    if (probe.get(i) == '\n') {
+                        cut = p + i + 1;
+                        break;
+                    }
+                }
+                p += n;
+            }
+            if (cut < 0 || cut >= size) break;
+            bounds.add(cut);
+            pos = cut;
+        }
+        bounds.add(size);
+        long[] res = new long[bounds.size()];
+        for (int i = 0; i < res.length; i++) res[i] = bounds.get(i);
+        return res;
+    }
+
+    private static int countLines(FileChannel ch, long from, long to) throws IOException {
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int end = (int) (to - from);
+        int lines = 0, pos = 0;
+        while (pos < end) {
+            int eol = lineEnd(buf, pos, end);
+            lines++;
+            pos = nextLine(buf, eol, end);
+        }
+        return lines;
+    }
+
+    // ---------- разбор диапазона ----------
+
+    /** baseLine — номер строки файла, предшествующей диапазону. */
+    private static void parseRange(FileChannel ch, long from, long to, int baseLine,
+                                   BlockingQueue<CsvImportPipeline.ParsedChunk> out) {
+        int seq = 0;
+        try {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            LineParser parser = new LineParser();
+            int end = (int) (to - from);
+            int lineNo = baseLine;
+            int firstLine = 0;
+            List<Tariff> batch = new ArrayList<>(CsvIO.IMPORT_CHUNK);
+
+            int pos = 0;
+            while (pos < end) {
+                int eol = lineEnd(buf, pos, end);
+                lineNo++;
+                if (!isBlank(buf, pos, eol)) {
+                    Tariff t;
+                    try {
+                        t = parser.parse(buf, pos, eol, lineNo);
+                    } catch (TariffException e) {
+                        out.put(new CsvImportPipeline.ParsedChunk(seq, batch, firstLine, lineNo - 1,
+                                from + pos, e, true));
+                        return;
+                    }
+                    if (batch.isEmpty()) firstLine = lineNo;
+                    batch.add(t);
+                    if (batch.size() == CsvIO.IMPORT_CHUNK) {
+                        out.put(new CsvImportPipeline.ParsedChunk(seq++, batch, firstLine, lineNo,
+                                from + nextLine(buf, eol, end), null, false));
+                        batch = new ArrayList<>(CsvIO.IMPORT_CHUNK);
+                    }
+                }
+                pos = nextLine(buf, eol, end);
+            }
+            out.put(new CsvImportPipeline.ParsedChunk(seq, batch, firstLine, lineNo, to, null, true));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // запись уже завершилась
+        } catch (IOException | RuntimeException e) {
+            TariffException err = e instanceof TariffException te ? te
+                    : new TariffException("Ошибка чтения: " + e.getMessage());
+            try {
+                out.put(new CsvImportPipeline.ParsedChunk(seq, new ArrayList<>(), 0, 0, from, err, true));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Пишет диапазоны строго по порядку; внутри диапазона пакеты приходят уже упорядоченными. */
+    private static CsvIO.ImportResult write(List<BlockingQueue<CsvImportPipeline.ParsedChunk>> queues,
+                                            CsvIO.ImportState state) throws InterruptedException {
+        for (BlockingQueue<CsvImportPipeline.ParsedChunk> q : queues) {
+            while (true) {
+                CsvImportPipeline.ParsedChunk c = q.take();
+                state.write(c.tariffs, c.firstLine, c.lastLine);
+                if (c.error != null) throw c.error;
+                state.progress(c.endOffset);
+                if (c.last) break;
+            }
+        }
+        return state.result();
+    }
+
+    // ---------- байтовые помощники ----------
+
+    /** Конец строки: позиция '\n' или '\r' (как у BufferedReader.readLine) либо end. */
+    private static int lineEnd(ByteBuffer buf, int pos, int end) {
+        while (pos < end) {
+            byte b = buf.get(pos);
+            if (b == '\n' || b == '\r') return pos;
+            pos++;
+        }
+        return end;
+    }
+
+    /** Начало следующей строки после терминатора в eol ("\r\n" — один перевод строки). */
+    private static int nextLine(ByteBuffer buf, int eol, int end) {
+        if (eol >= end) return end;
+        if (buf.get(eol) == '\r' && eol + 1 < end && buf.get(eol + 1) == '\n') return eol + 2;
+        return eol + 1;
+    }
+
+    /** Аналог line.trim().isEmpty(): только байты ≤ ' '. */
+    private static boolean isBlank(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((buf.get(i) & 0xFF) > ' ') return false;
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buf, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buf.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Разбор одной строки из байтов; у каждого потока свой экземпляр (свой буфер под город). */
+    private static final class LineParser {
+        private static final double[] POW10 = {
+                1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+                1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+        private static final long MAX_EXACT = 1L << 53;
+
+        private byte[] scratch = new byte[128];
+
+        Tariff parse(ByteBuffer buf, int from, int to, int lineNo) {
+            Tariff t = fast(buf, from, to);
+            if (t != null) return t;
+            // редкий/ошибочный случай — разбираем как обычный импорт (те же сообщения)
+            return CsvIO.parseLine(decode(buf, from, to), lineNo);
+        }
+
+        /** null — строка не «простая», пусть её разберёт CsvIO.parseLine. */
+        private Tariff fast(ByteBuffer buf, int from, int to) {
+            int s1 = indexOf(buf, from, to);
+            if (s1 < 0) return null;
+            int s2 = indexOf(buf, s1 + 1, to);
+            if (s2 < 0) return null;
+            int s3 = indexOf(buf, s2 + 1, to);
+            if (s3 < 0) return null;
+            int s4 = indexOf(buf, s3 + 1, to);
+            if (s4 < 0) s4 = to;
+
+            TariffType type = type(buf, s1 + 1, s2);
+            if (type == null) return null;
+            double price = number(buf, s2 + 1, s3);
+            double disc = number(buf, s3 + 1, s4);
+            if (Double.isNaN(price) || Double.isNaN(disc)) return null;
+
+            if (price < 0.01 || price > 1_000.00) return null;
+            if (type == TariffType.PRIVILEGED) {
+                if (disc < 0 || disc > 100) return null;
+            } else if (Math.abs(disc) > 1e-9) {
+                return null;
+            }
+
+            String city = city(buf, from, s1);
+            try {
+                TariffManager.validateCity(city);
+            } catch (TariffException e) {
+                return null;
+            }
+            return new Tariff(city, type, price, disc);
+        }
+
+        private static int indexOf(ByteBuffer buf, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buf.get(i) == ';') return i;
+            }
+            return -1;
+        }
+
+        /** Город: обрезка байтов ≤ ' ' (как String.trim) и декодирование UTF-8. */
+        private String city(ByteBuffer buf, int from, int to) {
+            while (from < to && (buf.get(from) & 0xFF) <= ' ') from++;
+            while (to > from && (buf.get(to - 1) & 0xFF) <= ' ') to--;
+            int len = to - from;
+            if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+            buf.get(from, scratch, 0, len);
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+
+        /** REGULAR / PRIVILEGED без учёта регистра (ASCII), с обрезкой пробелов. */
+        private static TariffType type(ByteBuffer buf, int from, int to) {
+            while (from < to && (buf.get(from) & 0xFF) <= ' ') from++;
+            while (to > from && (buf.get(to - 1) & 0xFF) <= ' ') to--;
+            if (equalsAsciiIgnoreCase(buf, from, to, "REGULAR")) return TariffType.REGULAR;
+            if (equalsAsciiIgnoreCase(buf, from, to, "PRIVILEGED")) return TariffType.PRIVILEGED;
+            return null;
+        }
+
+        private static boolean equalsAsciiIgnoreCase(ByteBuffer buf, int from, int to, String upper) {
+            if (to - from != upper.length()) return false;
+            for (int i = 0; i < upper.length(); i++) {
+                int b = buf.get(from + i);
+                if (b >= 'a' && b <= 'z') b -= 'a' - 'A';
+                if (b != upper.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Число вида [+-]цифры[.,]цифры; пробелы и NBSP внутри пропускаются (как CsvIO.parseDouble).
+         * Результат — целое/10^k, оба точно представимы, поэтому деление даёт то же,
+         * что Double.parseDouble. NaN — «не простой» случай.
+         */
+        private static double number(ByteBuffer buf, int from, int to) {
+            long mant = 0;
+            int digits = 0, frac = -1;
+            boolean neg = false, signAllowed = true;
+            for (int i = from; i < to; i++) {
+                int b = buf.get(i) & 0xFF;
+                if (b >= '0' && b <= '9') {
+                    if (++digits > 18) return Double.NaN;
+                    mant = mant * 10 + (b - '0');
+                    if (frac >= 0) frac++;
+                    signAllowed = false;
+                } else if (b == ' ') {
+                    // пробел-разделитель разрядов
+                } else if (b == 0xC2 && i + 1 < to && (buf.get(i + 1) & 0xFF) == 0xA0) {
+                    i++; // NBSP
+                } else if ((b == '.' || b == ',') && frac < 0) {
+                    frac = 0;
+                    signAllowed = false;
+                } else if ((b == '-' || b == '+') && signAllowed) {
+                    neg = b == '-';
+                    signAllowed = false;
+                } else {
+                    return Double.NaN;
+                }
+            }
+            if (digits == 0 || mant > MAX_EXACT) return Double.NaN;
+            double v = frac > 0 ? mant / POW10[frac] : (double) mant;
+            return neg ? -v : v;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package atc.io;
+
+import atc.rating.CallRatingEngine;
+import atc.rating.CdrBatch;
+import atc.rating.RatingTotals;
+import atc.service.ProgressMonitor;
+import atc.service.TariffException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Параллельная тарификация файла звонков на ForkJoinPool.
+ *
+ * Вызывающий поток находит шапку и режет данные на куски по CHUNK_SIZE байт
+ * по границам строк (MappedCsvReader.split). Каждый кусок — задача пула: прочитать
+ * свой диапазон, разобрать, тарифицировать и отформатировать строки выхода в память.
+ * Разборщик, пачка и итоги (RatingTotals) — у каждого потока пула свои (Worker):
+ * переиспользуются между кусками, общих счётчиков нет, итоги складываются в конце.
+ * Вызывающий поток лишь переносит готовые куски в файл — по порядку или по мере готовности.
+ * В работе не больше IN_FLIGHT_PER_THREAD кусков на поток пула, так что память ограничена.
+ */
+final class ParallelCdrRater {
+    private static final long CHUNK_SIZE = 1L << 20;
+    private static final int IN_FLIGHT_PER_THREAD = 2;
+    /** Где искать шапку; если её там нет — тарифицируем последовательно. */
+    private static final int HEADER_PROBE = 1 << 16;
+
+    private ParallelCdrRater() {}
+
+    /** Состояние одного потока пула. */
+    private static final class Worker {
+        final CdrLineParser parser = new CdrLineParser();
+        final CdrBatch batch = new CdrBatch(CdrCsvIO.BATCH);
+        final long[] charges = new long[CdrCsvIO.BATCH];
+        final RatingTotals totals;
+        byte[] bytes = new byte[0];
+
+        Worker(RatingTotals totals) { this.totals = totals; }
+    }
+
+    /** Результат куска: строки выхода в памяти либо ошибка разбора. */
+    private static final class Chunk {
+        final int index;
+        final long bytes;
+        CsvChannelWriter out;
+        long records;
+        TariffException error;
+        /** Начало строки с ошибкой в файле. */
+        long errorOffset;
+
+        Chunk(int index, long bytes) {
+            this.index = index;
+            this.bytes = bytes;
+        }
+    }
+
+    static CdrCsvIO.Result run(File in, File out, CallRatingEngine engine, ForkJoinPool pool,
+                               boolean ordered, ProgressMonitor monitor) {
+        try (FileChannel ch = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            long start = dataStart(ch, size);
+            if (start < 0) return CdrCsvIO.rate(in, out, engine, monitor); // шапка где-то далеко
+
+            long[] bounds = MappedCsvReader.split(ch, start, size, CHUNK_SIZE);
+            int n = bounds.length - 1;
+            int window = Math.max(2, pool.getParallelism() * IN_FLIGHT_PER_THREAD);
+
+            Map<Thread, Worker> workers = new ConcurrentHashMap<>();
+            BlockingQueue<Chunk> done = new LinkedBlockingQueue<>();
+            Queue<CsvChannelWriter> free = new ConcurrentLinkedQueue<>();
+            long[] records = {0};
+            AtomicBoolean stop = new AtomicBoolean();
+            try {
+                CsvIO.writeAtomically(out, CdrCsvIO.HEADER, w -> {
+                    Chunk[] ready = ordered ? new Chunk[n] : null;
+                    Chunk failed = null;
+                    int submitted = 0, written = 0, inFlight = 0;
+                    long bytesDone = start;
+                    while (written < n) {
+                        while (failed == null && submitted < n && submitted - written < window) {
+                            int index = submitted++;
+                            long from = bounds[index], to = bounds[index + 1];
+                            pool.execute(() -> {
+                                if (stop.get()) return;
+                                done.add(rate(ch, index, from, to, engine, workers, free));
+                            });
+                            inFlight++;
+                        }
+                        if (inFlight == 0) break; // была ошибка, все начатые куски вернулись
+                        Chunk c = take(done);
+                        inFlight--;
+                        if (c.error != null) {
+                            // куски раньше ошибочного уже в работе — ждём их, чтобы сообщить о первой ошибке в файле
+                            if (failed == null || c.index < failed.index) failed = c;
+                            continue;
+                        }
+                        if (failed != null) continue;
+                        if (!ordered) {
+                            bytesDone += write(w, c, free, records);
+                            written++;
+                        } else {
+                            ready[c.index] = c;
+                            while (written < n && ready[written] != null) {
+                                bytesDone += write(w, ready[written], free, records);
+                                ready[written++] = null;
+                            }
+                        }
+                        monitor.progress(bytesDone, size);
+                        monitor.checkCancelled();
+                    }
+                    if (failed != null) {
+                        throw new TariffException("Строка " + lineNumber(ch, failed.errorOffset) + ": "
+                                + failed.error.getMessage());
+                    }
+                });
+            } finally {
+                stop.set(true); // отмена/ошибка: ещё не начатые куски не нужны
+            }
+
+            RatingTotals totals = engine.newTotals();
+            for (Worker wk : workers.values()) totals.merge(wk.totals);
+            return new CdrCsvIO.Result(records[0], totals);
+        } catch (IOException e) {
+            throw new TariffException("Ошибка чтения: " + e.getMessage());
+        }
+    }
+
+    /** Задача пула: кусок [from, to) файла → строки выхода в памяти. */
+    private static Chunk rate(FileChannel ch, int index, long from, long to, CallRatingEngine engine,
+                              Map<Thread, Worker> workers, Queue<CsvChannelWriter> free) {
+        Chunk c = new Chunk(index, to - from);
+        try {
+            Worker wk = workers.computeIfAbsent(Thread.currentThread(), t -> new Worker(engine.newTotals()));
+            int len = (int) (to - from);
+            if (wk.bytes.length < len) wk.bytes = new byte[len];
+            byte[] buf = wk.bytes;
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+            while (bb.hasRemaining() && ch.read(bb, from + bb.position()) >= 0) { }
+
+            CsvChannelWriter out = free.poll();
+            c.out = out != null ? out : new CsvChannelWriter(len + len / 2 + 64);
+            CdrBatch batch = wk.batch;
+            batch.clear();
+            int pos = 0;
+            while (pos < len) {
+                int eol = pos;
+                while (eol < len && buf[eol] != '\n') eol++;
+                int end = eol > pos && buf[eol - 1] == '\r' ? eol - 1 : eol;
+                if (!CdrLineParser.isBlank(buf, pos, end)) {
+                    try {
+                        wk.parser.parse(buf, pos, end, batch);
+                    } catch (TariffException e) {
+                        c.error = e;
+                        c.errorOffset = from + pos;
+                        return c;
+                    }
+                    if (batch.isFull()) flush(wk, engine, c);
+                }
+                pos = eol + 1;
+            }
+            flush(wk, engine, c);
+        } catch (IOException | RuntimeException e) {
+            c.error = e instanceof TariffException te ? te : new TariffException("Ошибка чтения: " + e.getMessage());
+            c.errorOffset = from;
+        }
+        return c;
+    }
+
+    private static void flush(Worker wk, CallRatingEngine engine, Chunk c) throws IOException {
+        if (wk.batch.size() == 0) return;
+        engine.rate(wk.batch, wk.charges, wk.totals);
+        CdrCsvIO.writeBatch(c.out, wk.batch, wk.charges);
+        c.records += wk.batch.size();
+        wk.batch.clear();
+    }
+
+    /** Перенести кусок в файл и вернуть его буфер в оборот; результат — байты входа куска. */
+    private static long write(CsvChannelWriter w, Chunk c, Queue<CsvChannelWriter> free, long[] records)
+            throws IOException {
+        w.append(c.out);
+        free.add(c.out);
+        records[0] += c.records;
+        return c.bytes;
+    }
+
+    private static Chunk take(BlockingQueue<Chunk> done) {
+        try {
+            return done.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TariffException("Тарификация прервана");
+        }
+    }
+
+    /**
+     * Начало данных: сразу после шапки (BOM и пустые строки перед ней пропускаются,
+     * как в последовательном режиме). size — в файле нет строк данных;
+     * -1 — шапка не уместилась в HEADER_PROBE.
+     */
+    private static long dataStart(FileChannel ch, long size) throws IOException {
+        int len = (int) Math.min(size, HEADER_PROBE);
+        byte[] buf = new byte[len];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        while (bb.hasRemaining() && ch.read(bb, bb.position()) >= 0) { }
+
+        int pos = 0, lineNo = 0;
+        while (pos < len) {
+            int eol = pos;
+            while (eol < len && buf[eol] != '\n') eol++;
+            if (eol == len && len < size) return -1;
+            lineNo++;
+            int from = pos + (lineNo == 1 ? CdrLineParser.bom(buf, pos, eol) : 0);
+            int end = eol > from && buf[eol - 1] == '\r' ? eol - 1 : eol;
+            pos = eol + 1;
+            if (!CdrLineParser.isBlank(buf, from, end)) {
+                CdrLineParser.checkHeader(buf, from, end, lineNo);
+                return Math.min(pos, size);
+            }
+        }
+        return len < size ? -1 : size;
+    }
+
+    /** Номер строки, начинающейся с offset (считаем '\n' до неё — только на пути ошибки). */
+    private static long lineNumber(FileChannel ch, long offset) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(1 << 16);
+        long line = 1, pos = 0;
+        while (pos < offset) {
+            bb.clear();
+            bb.limit((int) Math.min(bb.capacity(), offset - pos));
+            int n = ch.read(bb, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (bb.get(i) == '\n') line++;
+            }
+            pos += n;
+        }
+        return line;
+    }
+}
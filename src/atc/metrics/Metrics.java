@@ -0,0 +1,130 @@
+package atc.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Счётчики операций: число вызовов, ошибок (брошенное исключение) и гистограмма
+ * длительностей по имени операции («repo.add», «manager.update» …).
+ * Пишут InstrumentedTariffRepository и TariffManager; читает JMX (MetricsMXBean).
+ * NONE — выключенные метрики: time(...) просто выполняет тело.
+ */
+public final class Metrics implements MetricsMXBean {
+    public static final String OBJECT_NAME = "atc:type=Metrics";
+
+    public static final Metrics NONE = new Metrics(null, false);
+
+    private final Map<String, LatencyHistogram> operations = new ConcurrentHashMap<>();
+    private final SlowSqlLog slowSql;
+    private final boolean enabled;
+
+    public Metrics() {
+        this(null);
+    }
+
+    /** slowSql — журнал медленного SQL, порог которого показывается и меняется через JMX (может быть null). */
+    public Metrics(SlowSqlLog slowSql) {
+        this(slowSql, true);
+    }
+
+    private Metrics(SlowSqlLog slowSql, boolean enabled) {
+        this.slowSql = slowSql;
+        this.enabled = enabled;
+    }
+
+    /** Учесть операцию, начатую в startNanos (System.nanoTime()). */
+    public void record(String operation, long startNanos, boolean failed) {
+        if (!enabled) return;
+        operations.computeIfAbsent(operation, k -> new LatencyHistogram())
+                .record(System.nanoTime() - startNanos, failed);
+    }
+
+    public <T> T time(String operation, Supplier<T> body) {
+        if (!enabled) return body.get();
+        long t0 = System.nanoTime();
+        boolean failed = true;
+        try {
+            T res = body.get();
+            failed = false;
+            return res;
+        } finally {
+            record(operation, t0, failed);
+        }
+    }
+
+    public void time(String operation, Runnable body) {
+        if (!enabled) {
+            body.run();
+            return;
+        }
+        long t0 = System.nanoTime();
+        boolean failed = true;
+        try {
+            body.run();
+            failed = false;
+        } finally {
+            record(operation, t0, failed);
+        }
+    }
+
+    /** Снимок одной операции или null, если её ещё не было. */
+    public OperationStats stats(String operation) {
+        LatencyHistogram h = operations.get(operation);
+        return h == null ? null : snapshot(operation, h);
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        List<OperationStats> res = new ArrayList<>();
+        new TreeMap<>(operations).forEach((name, h) -> res.add(snapshot(name, h)));
+        return res;
+    }
+
+    @Override
+    public List<String> getSummary() {
+        List<String> res = new ArrayList<>();
+        for (OperationStats s : getOperations()) res.add(s.toString());
+        return res;
+    }
+
+    @Override
+    public long getSlowSqlThresholdMillis() {
+        return slowSql == null ? -1 : slowSql.getThresholdMillis();
+    }
+
+    @Override
+    public void setSlowSqlThresholdMillis(long millis) {
+        if (slowSql == null) throw new IllegalStateException("Журнал медленного SQL не подключён");
+        slowSql.setThresholdMillis(millis);
+    }
+
+    @Override
+    public void reset() {
+        operations.values().forEach(LatencyHistogram::reset);
+    }
+
+    /** Зарегистрировать в платформенном MBeanServer под OBJECT_NAME (заменив прежний). */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+        server.registerMBean(this, name);
+    }
+
+    private static OperationStats snapshot(String name, LatencyHistogram h) {
+        long n = h.count();
+        return new OperationStats(name, n, h.errors(),
+                n == 0 ? 0 : h.totalNanos() / 1e3 / n,
+                h.percentile(0.50) / 1e3,
+                h.percentile(0.99) / 1e3,
+                h.maxNanos() / 1e3);
+    }
+}
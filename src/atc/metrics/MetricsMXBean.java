@@ -0,0 +1,19 @@
+package atc.metrics;
+
+import java.util.List;
+
+/** Метрики АТС в JMX (jconsole/VisualVM: atc → Metrics). */
+public interface MetricsMXBean {
+    /** Все операции по имени: число вызовов, ошибок и задержки (p50/p99/max). */
+    List<OperationStats> getOperations();
+
+    /** То же одной строкой на операцию — удобно читать в консоли. */
+    List<String> getSummary();
+
+    /** Порог медленного SQL, мс; -1 — журнал выключен. */
+    long getSlowSqlThresholdMillis();
+    void setSlowSqlThresholdMillis(long millis);
+
+    /** Обнулить все счётчики. */
+    void reset();
+}
@@ -0,0 +1,37 @@
+package atc.metrics;
+
+import java.beans.ConstructorProperties;
+
+/** Снимок счётчиков одной операции; времена — в микросекундах. */
+public final class OperationStats {
+    private final String operation;
+    private final long count, errors;
+    private final double meanMicros, p50Micros, p99Micros, maxMicros;
+
+    @ConstructorProperties({"operation", "count", "errors", "meanMicros", "p50Micros", "p99Micros", "maxMicros"})
+    public OperationStats(String operation, long count, long errors,
+                          double meanMicros, double p50Micros, double p99Micros, double maxMicros) {
+        this.operation = operation;
+        this.count = count;
+        this.errors = errors;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public String getOperation() { return operation; }
+    public long getCount() { return count; }
+    public long getErrors() { return errors; }
+    public double getMeanMicros() { return meanMicros; }
+    public double getP50Micros() { return p50Micros; }
+    public double getP99Micros() { return p99Micros; }
+    public double getMaxMicros() { return maxMicros; }
+
+    @Override
+    public String toString() {
+        return String.format(java.util.Locale.ROOT,
+                "%s: n=%d err=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus",
+                operation, count, errors, meanMicros, p50Micros, p99Micros, maxMicros);
+    }
+}
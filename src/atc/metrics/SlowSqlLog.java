@@ -0,0 +1,51 @@
+package atc.metrics;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Журнал медленных SQL-запросов (логгер «atc.sql», уровень WARNING): запрос,
+ * его параметры и время. Порог меняется на ходу (через JMX); проверка — одно
+ * сравнение, параметры собираются только для действительно медленных запросов:
+ *
+ *   long t0 = System.nanoTime();
+ *   ps.executeUpdate();
+ *   if (slowSql.isSlow(t0)) slowSql.log(t0, SQL, city, price);
+ */
+public final class SlowSqlLog {
+    private static final Logger LOG = Logger.getLogger("atc.sql");
+
+    private volatile long thresholdNanos;
+
+    /** thresholdMillis &lt; 0 — выключен. */
+    public SlowSqlLog(long thresholdMillis) {
+        setThresholdMillis(thresholdMillis);
+    }
+
+    /** Порог из системного свойства atc.sql.slowMillis (по умолчанию выключен). */
+    public static SlowSqlLog fromSystemProperties() {
+        return new SlowSqlLog(Long.getLong("atc.sql.slowMillis", -1));
+    }
+
+    public long getThresholdMillis() {
+        long t = thresholdNanos;
+        return t < 0 ? -1 : t / 1_000_000;
+    }
+
+    public void setThresholdMillis(long millis) {
+        thresholdNanos = millis < 0 ? -1 : millis * 1_000_000;
+    }
+
+    public boolean isSlow(long startNanos) {
+        long t = thresholdNanos;
+        return t >= 0 && System.nanoTime() - startNanos >= t;
+    }
+
+    public void log(long startNanos, String sql, Object... params) {
+        if (!LOG.isLoggable(Level.WARNING)) return;
+        long ms = (System.nanoTime() - startNanos) / 1_000_000;
+        LOG.warning("Медленный SQL (" + ms + " мс): " + sql
+                + (params.length > 0 ? " " + Arrays.deepToString(params) : ""));
+    }
+}
@@ -0,0 +1,55 @@
+package atc.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.logging.Logger;
+
+/**
+ * Этапы запуска окна (логгер «atc.startup», уровень INFO): время от start() до каждой
+ * отметки — «окно показано», «БД открыта», «первая страница», …. Отметки ставят EDT
+ * и поток загрузки, поэтому это моменты от старта, а не длительности шагов.
+ * done() пишет одну итоговую строку — её удобно сравнивать между версиями:
+ *
+ *   Запуск: JVM 180 мс; окно показано 95 мс; БД открыта 140 мс; первая страница 210 мс; …
+ */
+public final class StartupTimer {
+    private static final Logger LOG = Logger.getLogger("atc.startup");
+
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+
+    // под this
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private boolean done;
+
+    private StartupTimer() { }
+
+    public static StartupTimer start() {
+        return new StartupTimer();
+    }
+
+    /** Отметить этап; повторная отметка с тем же именем не меняет первую. Возвращает мс от старта. */
+    public synchronized long phase(String name) {
+        long ms = (System.nanoTime() - startNanos) / 1_000_000;
+        if (phases.putIfAbsent(name, ms) == null) LOG.info(() -> "Запуск, " + name + ": " + ms + " мс");
+        return ms;
+    }
+
+    /** Итоговая строка по всем этапам (один раз). */
+    public synchronized void done() {
+        if (done) return;
+        done = true;
+        StringJoiner line = new StringJoiner("; ", "Запуск: ", "");
+        // ManagementFactory — только здесь, уже после первой отрисовки, чтобы не удлинять сам запуск
+        line.add("JVM " + (startMillis - ManagementFactory.getRuntimeMXBean().getStartTime()) + " мс");
+        phases.forEach((name, ms) -> line.add(name + " " + ms + " мс"));
+        LOG.info(line.toString());
+    }
+
+    /** Этапы в порядке отметок: имя → мс от старта. */
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+}
@@ -46,5 +46,10 @@ public class Tariff {
         return round2(pricePerMinute);
     }
 
+    /** Итоговая цена в копейках — для точных сумм без накопления ошибки double. */
+    public long finalPriceCents() {
+        return Math.round(finalPrice() * 100.0);
+    }
+
     private static double round2(double v) { return Math.round(v * 100.0) / 100.0; }
 }
@@ -0,0 +1,79 @@
+package atc.rating;
+
+import atc.model.Tariff;
+import atc.model.TariffType;
+import atc.service.TariffManager;
+
+import java.util.Collection;
+
+/**
+ * Тарификация звонков по таблице тарифов.
+ *
+ * Стоимость звонка = оплачиваемые минуты × Tariff.finalPrice() тарифа его города и типа.
+ * Минуты округляются вверх (61 с — 2 мин), звонок нулевой длительности бесплатен.
+ * Считаем в копейках (finalPriceCents), поэтому суммы точные.
+ * Движок неизменяем и потокобезопасен: тарифы читаются из снимка RatingTable,
+ * правки тарифов после построения на него не влияют.
+ */
+public final class CallRatingEngine {
+    /** Стоимость звонка, для которого нет тарифа. */
+    public static final long UNRATED = -1;
+
+    private final RatingTable table;
+
+    public CallRatingEngine(RatingTable table) {
+        this.table = table;
+    }
+
+    public static CallRatingEngine of(Collection<Tariff> tariffs) {
+        return new CallRatingEngine(RatingTable.of(tariffs));
+    }
+
+    /** По текущему снимку менеджера: согласован и не ждёт идущих правок. */
+    public static CallRatingEngine of(TariffManager manager) {
+        return of(manager.snapshot().getTariffs());
+    }
+
+    public RatingTable getTable() { return table; }
+
+    public RatingTotals newTotals() { return new RatingTotals(table); }
+
+    public static long billedMinutes(long seconds) {
+        return seconds <= 0 ? 0 : (seconds + 59) / 60;
+    }
+
+    /** Стоимость в копейках или UNRATED. */
+    public long charge(CharSequence city, TariffType type, long seconds) {
+        int e = table.find(city, type);
+        return e < 0 ? UNRATED : billedMinutes(seconds) * table.priceCents(e);
+    }
+
+    /** То же для города chars[from, to). */
+    public long charge(char[] city, int from, int to, TariffType type, long seconds) {
+        int e = table.find(city, from, to, type);
+        return e < 0 ? UNRATED : billedMinutes(seconds) * table.priceCents(e);
+    }
+
+    /**
+     * Тарифицировать пачку: charges[i] — стоимость i-го звонка в копейках или UNRATED;
+     * totals (может быть null) накапливает итоги. Возвращает число тарифицированных звонков.
+     */
+    public int rate(CdrBatch batch, long[] charges, RatingTotals totals) {
+        char[] chars = batch.chars();
+        int rated = 0;
+        for (int i = 0, n = batch.size(); i < n; i++) {
+            int e = table.find(chars, batch.cityFrom(i), batch.cityTo(i), batch.type(i));
+            if (e < 0) {
+                charges[i] = UNRATED;
+                if (totals != null) totals.addUnrated();
+                continue;
+            }
+            long minutes = billedMinutes(batch.seconds(i));
+            long charge = minutes * table.priceCents(e);
+            charges[i] = charge;
+            if (totals != null) totals.add(e, minutes, charge);
+            rated++;
+        }
+        return rated;
+    }
+}
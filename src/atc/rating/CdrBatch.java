@@ -0,0 +1,78 @@
+package atc.rating;
+
+import atc.model.TariffType;
+
+import java.util.Arrays;
+
+/**
+ * Пачка записей о звонках (CDR) в столбцах: города лежат подряд в одном char[],
+ * у записи — только границы своего города, тип и длительность.
+ * Буфер переиспользуется: clear() и заполнение заново ничего не аллоцируют,
+ * массивы растут лишь пока не достигнут размера самой большой пачки.
+ */
+public final class CdrBatch {
+    private static final TariffType[] TYPES = TariffType.values();
+
+    private char[] chars;
+    private int charCount;
+    private int[] cityFrom, cityTo;
+    private byte[] types;
+    private long[] seconds;
+    private int size;
+
+    public CdrBatch(int capacity) {
+        int n = Math.max(1, capacity);
+        chars = new char[n * 16];
+        cityFrom = new int[n];
+        cityTo = new int[n];
+        types = new byte[n];
+        seconds = new long[n];
+    }
+
+    public int size() { return size; }
+    public int capacity() { return types.length; }
+    public boolean isFull() { return size == types.length; }
+
+    public void clear() {
+        size = 0;
+        charCount = 0;
+    }
+
+    /** Добавить звонок: город — chars[from, to) (копируется), тип и длительность в секундах. */
+    public void add(char[] city, int from, int to, TariffType type, long durationSeconds) {
+        int len = to - from;
+        if (charCount + len > chars.length) chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + len));
+        System.arraycopy(city, from, chars, charCount, len);
+        put(len, type, durationSeconds);
+    }
+
+    public void add(CharSequence city, TariffType type, long durationSeconds) {
+        int len = city.length();
+        if (charCount + len > chars.length) chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + len));
+        for (int i = 0; i < len; i++) chars[charCount + i] = city.charAt(i);
+        put(len, type, durationSeconds);
+    }
+
+    private void put(int len, TariffType type, long durationSeconds) {
+        if (size == types.length) {
+            int n = size * 2;
+            cityFrom = Arrays.copyOf(cityFrom, n);
+            cityTo = Arrays.copyOf(cityTo, n);
+            types = Arrays.copyOf(types, n);
+            seconds = Arrays.copyOf(seconds, n);
+        }
+        cityFrom[size] = charCount;
+        charCount += len;
+        cityTo[size] = charCount;
+        types[size] = (byte) type.ordinal();
+        seconds[size] = durationSeconds;
+        size++;
+    }
+
+    /** Общий буфер символов; город записи i — [cityFrom(i), cityTo(i)). */
+    public char[] chars() { return chars; }
+    public int cityFrom(int i) { return cityFrom[i]; }
+    public int cityTo(int i) { return cityTo[i]; }
+    public TariffType type(int i) { return TYPES[types[i]]; }
+    public long seconds(int i) { return seconds[i]; }
+}
@@ -0,0 +1,183 @@
+package atc.rating;
+
+import atc.model.Tariff;
+import atc.model.TariffType;
+
+import java.util.*;
+
+/**
+ * Неизменяемый индекс тарифов для тарификации: (город, тип) → итоговая цена минуты в копейках.
+ *
+ * Город сравнивается так же, как ключ дублей TariffManager: без учёта регистра,
+ * крайних и повторных пробелов. Хэш и сравнение считаются прямо по символам
+ * запроса (нормализация «на лету»), поэтому поиск ничего не аллоцирует.
+ * Если для пары (город, тип) тарифов несколько, берётся самый дешёвый по finalPrice().
+ * Открытая адресация с линейным пробированием, заполнение не больше половины.
+ */
+public final class RatingTable {
+    private static final TariffType[] TYPES = TariffType.values();
+
+    /** Нормализованные города записей. */
+    private final char[][] keys;
+    private final byte[] types;
+    /** Итоговая цена минуты, коп. (Tariff.finalPriceCents). */
+    private final long[] cents;
+    /** Город для отчётов — как записан в тарифе, без лишних пробелов. */
+    private final String[] cities;
+    /** Номер записи + 1; 0 — пусто. */
+    private final int[] table;
+    private final int mask;
+
+    private RatingTable(List<Tariff> best) {
+        int n = best.size();
+        keys = new char[n][];
+        types = new byte[n];
+        cents = new long[n];
+        cities = new String[n];
+        int cap = Integer.highestOneBit(Math.max(4, n * 2 - 1)) << 1;
+        table = new int[cap];
+        mask = cap - 1;
+        for (int i = 0; i < n; i++) {
+            Tariff t = best.get(i);
+            keys[i] = normalize(t.getCity());
+            types[i] = (byte) t.getType().ordinal();
+            cents[i] = t.finalPriceCents();
+            cities[i] = t.getCity().trim().replaceAll("\\s+", " ");
+            int h = hash(keys[i], 0, keys[i].length, t.getType()) & mask;
+            while (table[h] != 0) h = (h + 1) & mask;
+            table[h] = i + 1;
+        }
+    }
+
+    /** Снимок тарифов → индекс (тарифы не меняются после построения). */
+    public static RatingTable of(Collection<Tariff> tariffs) {
+        Map<String, Tariff> cheapest = new LinkedHashMap<>();
+        for (Tariff t : tariffs) {
+            String key = new String(normalize(t.getCity())) + '\0' + t.getType().ordinal();
+            cheapest.merge(key, t, (a, b) -> b.finalPriceCents() < a.finalPriceCents() ? b : a);
+        }
+        return new RatingTable(new ArrayList<>(cheapest.values()));
+    }
+
+    /** Число записей (пар город+тип). */
+    public int size() { return keys.length; }
+
+    /** Номер записи для города chars[from, to) и типа; -1 — тарифа нет. */
+    public int find(char[] chars, int from, int to, TariffType type) {
+        int h = hash(chars, from, to, type) & mask;
+        byte tt = (byte) type.ordinal();
+        for (int e; (e = table[h]) != 0; h = (h + 1) & mask) {
+            int i = e - 1;
+            if (types[i] == tt && matches(keys[i], chars, from, to)) return i;
+        }
+        return -1;
+    }
+
+    /** То же для строки (без копирования символов). */
+    public int find(CharSequence city, TariffType type) {
+        int h = hash(city, type) & mask;
+        byte tt = (byte) type.ordinal();
+        for (int e; (e = table[h]) != 0; h = (h + 1) & mask) {
+            int i = e - 1;
+            if (types[i] == tt && matches(keys[i], city)) return i;
+        }
+        return -1;
+    }
+
+    public long priceCents(int entry) { return cents[entry]; }
+    public String city(int entry) { return cities[entry]; }
+    public TariffType type(int entry) { return TYPES[types[entry]]; }
+
+    // ---------- нормализация на лету ----------
+    // Символы ≤ ' ' считаются пробелами (как String.trim); регистр — Character.toLowerCase.
+
+    private static char[] normalize(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c <= ' ') {
+                space = sb.length() > 0;
+            } else {
+                if (space) sb.append(' ');
+                space = false;
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        char[] res = new char[sb.length()];
+        sb.getChars(0, res.length, res, 0);
+        return res;
+    }
+
+    private static int hash(char[] s, int from, int to, TariffType type) {
+        int h = type.ordinal() + 1;
+        boolean space = false, any = false;
+        for (int i = from; i < to; i++) {
+            char c = s[i];
+            if (c <= ' ') {
+                space = any;
+            } else {
+                if (space) h = h * 31 + ' ';
+                space = false;
+                any = true;
+                h = h * 31 + Character.toLowerCase(c);
+            }
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(CharSequence s, TariffType type) {
+        int h = type.ordinal() + 1;
+        boolean space = false, any = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c <= ' ') {
+                space = any;
+            } else {
+                if (space) h = h * 31 + ' ';
+                space = false;
+                any = true;
+                h = h * 31 + Character.toLowerCase(c);
+            }
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(char[] key, char[] s, int from, int to) {
+        int k = 0;
+        boolean space = false, any = false;
+        for (int i = from; i < to; i++) {
+            char c = s[i];
+            if (c <= ' ') {
+                space = any;
+                continue;
+            }
+            if (space) {
+                if (k >= key.length || key[k++] != ' ') return false;
+                space = false;
+            }
+            any = true;
+            if (k >= key.length || key[k++] != Character.toLowerCase(c)) return false;
+        }
+        return k == key.length;
+    }
+
+    private static boolean matches(char[] key, CharSequence s) {
+        int k = 0;
+        boolean space = false, any = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c <= ' ') {
+                space = any;
+                continue;
+            }
+            if (space) {
+                if (k >= key.length || key[k++] != ' ') return false;
+                space = false;
+            }
+            any = true;
+            if (k >= key.length || key[k++] != Character.toLowerCase(c)) return false;
+        }
+        return k == key.length;
+    }
+}
@@ -0,0 +1,94 @@
+package atc.rating;
+
+import atc.model.TariffType;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Итоги тарификации по записям RatingTable: звонки, оплачиваемые минуты и сумма в копейках.
+ * Счётчики — плоские массивы по номеру записи, так что учёт звонка ничего не аллоцирует.
+ * Не потокобезопасен: у каждого потока свои итоги, потом merge(...).
+ */
+public final class RatingTotals {
+
+    /** Свод по типу или городу. */
+    public static final class Summary {
+        private long calls, minutes, cents;
+
+        public long getCalls() { return calls; }
+        public long getMinutes() { return minutes; }
+        public long getCents() { return cents; }
+        public double getAmount() { return cents / 100.0; }
+
+        void add(long calls, long minutes, long cents) {
+            this.calls += calls;
+            this.minutes += minutes;
+            this.cents += cents;
+        }
+    }
+
+    private final RatingTable table;
+    private final long[] calls, minutes, cents;
+    private long unrated;
+
+    public RatingTotals(RatingTable table) {
+        this.table = table;
+        int n = table.size();
+        calls = new long[n];
+        minutes = new long[n];
+        cents = new long[n];
+    }
+
+    void add(int entry, long billedMinutes, long charge) {
+        calls[entry]++;
+        minutes[entry] += billedMinutes;
+        cents[entry] += charge;
+    }
+
+    void addUnrated() { unrated++; }
+
+    /** Прибавить итоги другого потока (по той же таблице). */
+    public void merge(RatingTotals other) {
+        if (other.table != table) throw new IllegalArgumentException("Итоги по разным таблицам тарифов");
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] += other.calls[i];
+            minutes[i] += other.minutes[i];
+            cents[i] += other.cents[i];
+        }
+        unrated += other.unrated;
+    }
+
+    /** Звонки без подходящего тарифа. */
+    public long getUnrated() { return unrated; }
+
+    public long getRated() {
+        long s = 0;
+        for (long c : calls) s += c;
+        return s;
+    }
+
+    public long getTotalCents() {
+        long s = 0;
+        for (long c : cents) s += c;
+        return s;
+    }
+
+    public Map<TariffType, Summary> byType() {
+        Map<TariffType, Summary> res = new EnumMap<>(TariffType.class);
+        for (int i = 0; i < calls.length; i++) {
+            if (calls[i] != 0) res.computeIfAbsent(table.type(i), k -> new Summary()).add(calls[i], minutes[i], cents[i]);
+        }
+        return res;
+    }
+
+    /** По городам (по алфавиту); звонки всех типов вместе. */
+    public Map<String, Summary> byCity() {
+        Map<String, Summary> res = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < calls.length; i++) {
+            if (calls[i] != 0) res.computeIfAbsent(table.city(i), k -> new Summary()).add(calls[i], minutes[i], cents[i]);
+        }
+        return res;
+    }
+}
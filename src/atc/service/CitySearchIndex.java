@@ -0,0 +1,200 @@
+package atc.service;
+
+import atc.data.TariffFilter;
+
+import java.util.*;
+
+/**
+ * Поиск города по началу названия или любого его слова, с запасным нечётким
+ * поиском (опечатки). Ключи — TariffFilter.cityKey: нижний регистр, одиночные пробелы.
+ *
+ * Начала слов лежат в отсортированном множестве строк вида «хвост\0ключ»:
+ * поиск по префиксу — один subSet, без обхода всех городов. Для нечёткого поиска
+ * слова разложены плоскими массивами по первой и по второй букве: кандидаты —
+ * слова, у которых первая или вторая буква совпадает с первой или второй буквой
+ * запроса, а не все города. Эти группы пересобираются лениво после изменений. Обновляется
+ * вместе с индексом дублей TariffManager; структура меняется только когда
+ * город появляется или исчезает целиком. Свой монитор — поиск из EDT не ждёт
+ * занятого импортом менеджера.
+ */
+public final class CitySearchIndex {
+
+    /** Найденный город: как он записан в тарифах, сколько тарифов и «расстояние» опечатки. */
+    public static final class Match {
+        private final String city;
+        private final String key;
+        private final int tariffs;
+        private final int distance;
+
+        Match(String city, String key, int tariffs, int distance) {
+            this.city = city;
+            this.key = key;
+            this.tariffs = tariffs;
+            this.distance = distance;
+        }
+
+        public String getCity() { return city; }
+        /** Ключ (TariffFilter.cityKey), под которым сложены все написания города — для отбора. */
+        public String getKey() { return key; }
+        public int getTariffs() { return tariffs; }
+        /** 0 — совпадение по началу, больше — сколько правок понадобилось. */
+        public int getDistance() { return distance; }
+
+        @Override
+        public String toString() { return city + " (" + tariffs + ")"; }
+    }
+
+    private static final char SEP = '\0';
+
+    /** «хвост с начала слова»\0ключ для каждого слова каждого города. */
+    private final TreeSet<String> starts = new TreeSet<>();
+
+    /** Слово города и его ключ — кандидат нечёткого поиска. */
+    private record Word(char[] chars, String key) {}
+
+    /** Слова по первой и по второй букве; null — устарели (набор городов менялся). */
+    private Map<Character, List<Word>> byFirst, bySecond;
+    /** Строки ДП расстояния, переиспользуются между вызовами (под монитором). */
+    private int[] prev = new int[16], cur = new int[16];
+    /** ключ → число тарифов. */
+    private final Map<String, Integer> counts = new HashMap<>();
+    /** ключ → написание для показа (первое встреченное). */
+    private final Map<String, String> display = new HashMap<>();
+
+    synchronized void add(String city) {
+        String key = TariffFilter.cityKey(city);
+        if (key.isEmpty()) return;
+        if (counts.merge(key, 1, Integer::sum) > 1) return;
+        display.put(key, city.trim().replaceAll("\\s+", " "));
+        for (int i : wordStarts(key)) starts.add(key.substring(i) + SEP + key);
+        byFirst = bySecond = null;
+    }
+
+    synchronized void remove(String city) {
+        String key = TariffFilter.cityKey(city);
+        Integer n = counts.get(key);
+        if (n == null) return;
+        if (n > 1) {
+            counts.put(key, n - 1);
+            return;
+        }
+        counts.remove(key);
+        display.remove(key);
+        for (int i : wordStarts(key)) starts.remove(key.substring(i) + SEP + key);
+        byFirst = bySecond = null;
+    }
+
+    synchronized void clear() {
+        starts.clear();
+        counts.clear();
+        display.clear();
+        byFirst = bySecond = null;
+    }
+
+    public synchronized int size() { return counts.size(); }
+
+    /**
+     * До limit городов: сначала те, у кого название или одно из слов начинается
+     * с query (по алфавиту), затем — если их мало и в запросе от 4 букв — похожие
+     * с опечаткой (расстояние Левенштейна до начала слова: 1 для коротких запросов, 2 для длинных).
+     */
+    public synchronized List<Match> search(String query, int limit) {
+        String q = TariffFilter.cityKey(query);
+        List<Match> res = new ArrayList<>();
+        if (q.isEmpty() || limit <= 0) return res;
+
+        Set<String> seen = new HashSet<>();
+        for (String s : starts.subSet(q, true, q + Character.MAX_VALUE, false)) {
+            String key = s.substring(s.indexOf(SEP) + 1);
+            if (seen.add(key)) {
+                res.add(new Match(display.get(key), key, counts.get(key), 0));
+                if (res.size() == limit) break;
+            }
+        }
+        res.sort(Comparator.comparing(Match::getCity));
+
+        if (res.size() == limit || q.length() < 4) return res;
+        int maxDist = q.length() <= 5 ? 1 : 2;
+        if (byFirst == null) group();
+        Map<String, Integer> best = new HashMap<>();
+        char c0 = q.charAt(0), c1 = q.charAt(1);
+        // ошибка не в первой букве / лишняя первая буква / ошибка в первой / пропущена первая
+        fuzzyScan(byFirst.get(c0), q, maxDist, seen, best);
+        if (c1 != c0) fuzzyScan(byFirst.get(c1), q, maxDist, seen, best);
+        fuzzyScan(bySecond.get(c1), q, maxDist, seen, best);
+        if (c1 != c0) fuzzyScan(bySecond.get(c0), q, maxDist, seen, best);
+
+        List<Match> fuzzy = new ArrayList<>(best.size());
+        best.forEach((key, d) -> fuzzy.add(new Match(display.get(key), key, counts.get(key), d)));
+        fuzzy.sort(Comparator.comparingInt(Match::getDistance).thenComparing(Match::getCity));
+        for (Match m : fuzzy) {
+            if (res.size() == limit) break;
+            res.add(m);
+        }
+        return res;
+    }
+
+    private void group() {
+        byFirst = new HashMap<>();
+        bySecond = new HashMap<>();
+        for (String s : starts) {
+            int sep = s.indexOf(SEP);
+            Word w = new Word(s.substring(0, sep).toCharArray(), s.substring(sep + 1));
+            byFirst.computeIfAbsent(w.chars[0], k -> new ArrayList<>()).add(w);
+            if (sep > 1) bySecond.computeIfAbsent(w.chars[1], k -> new ArrayList<>()).add(w);
+        }
+    }
+
+    /** В best — наименьшее расстояние по ключу среди слов-кандидатов. */
+    private void fuzzyScan(List<Word> words, String q, int max, Set<String> skip, Map<String, Integer> best) {
+        if (words == null) return;
+        int minLen = q.length() - max;
+        for (Word w : words) {
+            if (w.chars.length < minLen) continue; // слово заведомо короче запроса
+            int d = prefixDistance(q, w.chars, max);
+            if (d <= max && !skip.contains(w.key)) best.merge(w.key, d, Math::min);
+        }
+    }
+
+    /** Позиции начал слов ключа (после пробела или дефиса). */
+    private static List<Integer> wordStarts(String key) {
+        List<Integer> res = new ArrayList<>(2);
+        res.add(0);
+        for (int i = 1; i < key.length(); i++) {
+            char p = key.charAt(i - 1);
+            if ((p == ' ' || p == '-') && key.charAt(i) != ' ') res.add(i);
+        }
+        return res;
+    }
+
+    /**
+     * Наименьшее расстояние Левенштейна от q до какого-либо начала слова w; max + 1,
+     * если больше max (строки ДП обрываются, как только все их значения превысили max).
+     */
+    private int prefixDistance(String q, char[] w, int max) {
+        int m = Math.min(w.length, q.length() + max);
+        if (prev.length <= m) {
+            prev = new int[m + 1];
+            cur = new int[m + 1];
+        }
+        int[] p = prev, c = cur;
+        for (int j = 0; j <= m; j++) p[j] = j;
+        for (int i = 1; i <= q.length(); i++) {
+            c[0] = i;
+            int rowMin = i;
+            char qc = q.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int v = Math.min(Math.min(c[j - 1], p[j]) + 1, p[j - 1] + (qc == w[j - 1] ? 0 : 1));
+                c[j] = v;
+                if (v < rowMin) rowMin = v;
+            }
+            if (rowMin > max) return max + 1;
+            int[] t = p;
+            p = c;
+            c = t;
+        }
+        int best = max + 1;
+        for (int j = 0; j <= m; j++) best = Math.min(best, p[j]);
+        return best;
+    }
+}
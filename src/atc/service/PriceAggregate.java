@@ -0,0 +1,39 @@
+package atc.service;
+
+import java.util.TreeMap;
+
+/**
+ * Бегущий агрегат итоговых цен в копейках: количество и сумма — O(1),
+ * минимум/максимум — по счётчикам значений (O(log k), k — число разных цен).
+ */
+final class PriceAggregate {
+    private long count, totalCents;
+    private final TreeMap<Long, Integer> values = new TreeMap<>();
+
+    void add(long cents) {
+        count++;
+        totalCents += cents;
+        values.merge(cents, 1, Integer::sum);
+    }
+
+    void remove(long cents) {
+        count--;
+        totalCents -= cents;
+        values.computeIfPresent(cents, (k, n) -> n > 1 ? n - 1 : null);
+    }
+
+    void clear() {
+        count = 0;
+        totalCents = 0;
+        values.clear();
+    }
+
+    boolean isEmpty() { return count == 0; }
+    long count() { return count; }
+    long totalCents() { return totalCents; }
+
+    TariffStatistics.Summary summary() {
+        if (count == 0) return new TariffStatistics.Summary(0, 0, 0, 0);
+        return new TariffStatistics.Summary(count, totalCents, values.firstKey(), values.lastKey());
+    }
+}
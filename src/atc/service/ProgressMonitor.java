@@ -0,0 +1,27 @@
+package atc.service;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Ход долгой операции (импорт, экспорт, массовое изменение цен) и запрос её отмены.
+ * Операция сама опрашивает isCancelled() в безопасных точках, откатывает
+ * сделанное и бросает CancellationException.
+ */
+public interface ProgressMonitor {
+
+    /** Без отображения и без отмены. */
+    ProgressMonitor NONE = new ProgressMonitor() {
+        @Override public void progress(long done, long total) {}
+        @Override public boolean isCancelled() { return false; }
+    };
+
+    /** Сделано done из total (в единицах операции); total ≤ 0 — объём неизвестен. */
+    void progress(long done, long total);
+
+    boolean isCancelled();
+
+    /** Бросает CancellationException, если операцию попросили отменить. */
+    default void checkCancelled() {
+        if (isCancelled()) throw new CancellationException("Операция отменена");
+    }
+}
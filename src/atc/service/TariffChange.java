@@ -0,0 +1,63 @@
+package atc.service;
+
+import atc.model.Tariff;
+
+import java.util.List;
+
+/**
+ * Изменение списка TariffManager.getTariffs(). События применяются по порядку:
+ *   INSERTED — rows встали на позиции positions (итоговые, по возрастанию);
+ *   UPDATED  — строка positions[0] заменена на rows[0] (порядок не сдвинулся);
+ *   REMOVED  — удалена строка positions[0];
+ *   RESET    — список целиком заменён на rows.
+ * Строки переданы с событием, чтобы подписчик в другом потоке (EDT) мог вести
+ * свою копию, не читая список менеджера, пока его меняет фоновая задача.
+ */
+public final class TariffChange {
+
+    public enum Kind { INSERTED, UPDATED, REMOVED, RESET }
+
+    private final Kind kind;
+    private final int[] positions;
+    private final List<Tariff> rows;
+
+    private TariffChange(Kind kind, int[] positions, List<Tariff> rows) {
+        this.kind = kind;
+        this.positions = positions;
+        this.rows = rows;
+    }
+
+    static TariffChange inserted(int[] positions, List<Tariff> rows) {
+        return new TariffChange(Kind.INSERTED, positions, rows.stream().map(TariffSnapshot::copy).toList());
+    }
+    static TariffChange inserted(int index, Tariff row) {
+        return new TariffChange(Kind.INSERTED, new int[]{index}, List.of(TariffSnapshot.copy(row)));
+    }
+    static TariffChange updated(int index, Tariff row) {
+        return new TariffChange(Kind.UPDATED, new int[]{index}, List.of(TariffSnapshot.copy(row)));
+    }
+    static TariffChange removed(int index) {
+        return new TariffChange(Kind.REMOVED, new int[]{index}, List.of());
+    }
+    static TariffChange reset(List<Tariff> rows) {
+        return new TariffChange(Kind.RESET, new int[0], List.copyOf(rows));
+    }
+    /** Список снимка и так неизменяемый и отдаёт копии строк — передаём как есть. */
+    static TariffChange reset(TariffSnapshot snapshot) {
+        return new TariffChange(Kind.RESET, new int[0], snapshot.getTariffs());
+    }
+
+    public Kind getKind() { return kind; }
+
+    /** Сколько строк затронуто (для RESET — размер нового списка). */
+    public int size() { return kind == Kind.RESET ? rows.size() : positions.length; }
+
+    public int position(int i) { return positions[i]; }
+
+    public List<Tariff> getRows() { return rows; }
+
+    @Override
+    public String toString() {
+        return kind + "[" + size() + "]";
+    }
+}
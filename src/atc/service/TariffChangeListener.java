@@ -0,0 +1,7 @@
+package atc.service;
+
+/** Подписчик на изменения TariffManager; вызывается в потоке, который изменил данные. */
+@FunctionalInterface
+public interface TariffChangeListener {
+    void changed(TariffChange change);
+}
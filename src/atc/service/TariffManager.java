@@ -1,17 +1,69 @@
 package atc.service;
 
 import atc.data.InMemoryTariffRepository;
+import atc.data.TariffFilter;
 import atc.data.TariffRepository;
+import atc.data.TariffRowVisitor;
+import atc.data.TariffSort;
+import atc.metrics.Metrics;
 import atc.model.Tariff;
 import atc.model.TariffType;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
 
+/**
+ * Сервис тарифов: проверки, дубли, агрегаты и события поверх TariffRepository.
+ *
+ * Изменяющие методы синхронизированы и выполняются по одному. Каждое изменение
+ * публикует новый неизменяемый TariffSnapshot (копия при записи: O(n) на правку —
+ * столько же, сколько стоил сдвиг ArrayList). Чтение — getTariffs(), indexOf(),
+ * агрегаты, экспорт — берёт текущий снимок без блокировок и не ждёт импорта.
+ *
+ * Ограничение: снимок — вся таблица в памяти (reload() читает findAll()), на нём держатся
+ * индекс дублей, агрегаты, indexOf и поиск городов. Память менеджера растёт с таблицей;
+ * ограничена лишь память таблицы UI (PagedTariffTableModel читает страницы из хранилища).
+ */
 public class TariffManager {
     private final TariffRepository repo;
 
-    private final List<Tariff> cache = new ArrayList<>();
+    /** Текущий снимок; заменяется целиком под монитором менеджера. */
+    private volatile TariffSnapshot snapshot = TariffSnapshot.EMPTY;
+
+    // Состояние писателя (только под монитором): индекс дублей и бегущие агрегаты.
+
+    /** Хэш-индекс по «смысловому» ключу тарифа: ключ → сколько строк снимка с ним. */
+    private final Map<TariffKey, Integer> index = new HashMap<>();
+
+    /** Агрегаты итоговых цен: обновляются вместе с индексом, в снимок попадают готовыми. */
+    private final PriceAggregate totals = new PriceAggregate();
+    private final EnumMap<TariffType, PriceAggregate> totalsByType = new EnumMap<>(TariffType.class);
+    /** По городам — под ключом TariffFilter.cityKey, как дубли и city_key в БД («Москва» = «москва»). */
+    private final Map<String, PriceAggregate> totalsByCity = new HashMap<>();
+    /** ключ города → написание для показа (первое встреченное). */
+    private final Map<String, String> cityNames = new HashMap<>();
+    /** Города, чьи сводки изменились после последней публикации. */
+    private final Set<String> dirtyCities = new HashSet<>();
+    /** Сводки по городам последнего снимка (по корзинам): публикация копирует только корзины dirtyCities. */
+    private List<Map<String, TariffSnapshot.CityTotal>> cityBuckets = TariffSnapshot.NO_CITIES;
+
+    /** Поиск по городам для строки поиска; ведётся вместе с индексом дублей. */
+    private final CitySearchIndex cities = new CitySearchIndex();
+
+    /**
+     * Строки импорта, уже записанные в хранилище и учтённые в индексе дублей, но ещё не влитые
+     * в снимок (и в агрегаты): вливаются пачкой, когда их не меньше, чем строк в снимке, —
+     * копирование снимка при импорте O(n) в сумме, а не на каждый пакет.
+     */
+    private final List<Tariff> deferred = new ArrayList<>();
+    /** Отложенных строк меньше этого — в снимок вольются только в конце импорта. */
+    private static final int MIN_DEFERRED = 20_000;
+
+    private final List<TariffChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Счётчики операций «manager.*»; по умолчанию выключены. */
+    private volatile Metrics metrics = Metrics.NONE;
 
     public TariffManager() {
         this(new InMemoryTariffRepository());
@@ -20,15 +72,81 @@ public class TariffManager {
     /** Для подмены на БД-репозиторий. */
     public TariffManager(TariffRepository repo) {
         this.repo = repo;
-        refresh();
+        reload();
+    }
+
+    /**
+     * Полная перезагрузка снимка и индекса из репозитория.
+     * Обычные изменения правят снимок точечно; сюда приходим только по явному
+     * запросу или когда репозиторий ответил не так, как ожидал снимок (расхождение).
+     */
+    public synchronized void reload() {
+        metrics.time("manager.reload", this::doReload);
+    }
+
+    private void doReload() {
+        Tariff[] rows = repo.findAll().toArray(new Tariff[0]);
+        deferred.clear();
+        indexClear();
+        for (Tariff t : rows) indexAdd(t);
+        publish(rows);
+        fire(TariffChange.reset(snapshot));
+    }
+
+    /** Текущий снимок данных: без блокировок, не меняется. */
+    public TariffSnapshot snapshot() { return snapshot; }
+
+    /** Строки текущего снимка (неизменяемый список копий в порядке findAll()). */
+    public List<Tariff> getTariffs() { return snapshot.getTariffs(); }
+
+    /** Включить учёт операций менеджера (число, ошибки, задержки) в metrics. */
+    public void setMetrics(Metrics metrics) { this.metrics = metrics; }
+
+    public void addChangeListener(TariffChangeListener l) { listeners.add(l); }
+    public void removeChangeListener(TariffChangeListener l) { listeners.remove(l); }
+
+    private void fire(TariffChange change) {
+        for (TariffChangeListener l : listeners) l.changed(change);
+    }
+
+    // ---------- постраничное чтение прямо из хранилища (без снимка) ----------
+
+    /** Под монитором: изменения, учтённые в числе, уже отданы слушателям (и наоборот). */
+    public synchronized long count(TariffFilter filter) { return repo.count(filter); }
+
+    public List<Tariff> page(TariffFilter filter, Tariff after, int limit) {
+        return repo.findPage(filter, after, limit);
     }
 
-    private void refresh() {
-        cache.clear();
-        cache.addAll(repo.findAll());
+    public List<Tariff> pageAt(TariffFilter filter, long offset, int limit) {
+        return repo.findPageAt(filter, offset, limit);
+    }
+
+    /** Отбор и сортировку выполняет хранилище (в SQLite — WHERE и ORDER BY по индексу). */
+    public List<Tariff> page(TariffFilter filter, TariffSort sort, Tariff after, int limit) {
+        return repo.findPage(filter, sort, after, limit);
+    }
+
+    public List<Tariff> pageAt(TariffFilter filter, TariffSort sort, long offset, int limit) {
+        return repo.findPageAt(filter, sort, offset, limit);
+    }
+
+    /** Позиция тарифа в getTariffs() (по порядку findAll и id) или -1. */
+    public int indexOf(Tariff t) { return snapshot.indexOf(t); }
+
+    /**
+     * Города по началу названия (или слова в нём), при нехватке — с опечаткой.
+     * Не берёт монитор менеджера: подсказки не ждут фонового импорта.
+     */
+    public List<CitySearchIndex.Match> searchCities(String query, int limit) {
+        return cities.search(query, limit);
     }
 
-    public List<Tariff> getTariffs() { return cache; }
+    /**
+     * Обход строк прямо из хранилища в порядке findAll() (экспорт): в SQLite — курсор одной
+     * транзакции чтения, память не зависит от размера таблицы. Обход снимка — snapshot().forEachRow.
+     */
+    public void forEachRow(TariffRowVisitor visitor) { repo.forEachRow(visitor); }
 
     // ---------- ВАЛИДАЦИЯ ----------
     public static void validateCity(String city) {
@@ -51,42 +169,277 @@ public class TariffManager {
             throw new TariffException("Скидка должна быть в диапазоне 0..100%");
     }
 
+    /** Множитель цен для изменения на percent процентов (проверенный). */
+    public static double priceFactor(double percent) {
+        double factor = 1.0 + percent / 100.0;
+        if (factor <= 0.0) throw new TariffException("Процент слишком мал: цена станет ≤ 0");
+        if (percent > 100) throw new TariffException("Процент не должен превышать 100");
+        return factor;
+    }
+
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
     private static String normCity(String s) {
-        return s == null ? "" : s.trim().replaceAll("\\s+", " ");
+        return s == null ? "" : SPACES.matcher(s.trim()).replaceAll(" ");
+    }
+
+    /**
+     * Ключ «точного дубля» по смыслу домена (id игнорируем): город без учёта
+     * регистра и лишних пробелов, тип, цена и действующая скидка с точностью до копеек.
+     */
+    private record TariffKey(String city, TariffType type, long priceCents, long discountCents) {
+        static TariffKey of(Tariff t) {
+            double disc = t.getType() == TariffType.PRIVILEGED ? t.getDiscountPercent() : 0.0;
+            return new TariffKey(
+                    normCity(t.getCity()).toLowerCase(Locale.ROOT),
+                    t.getType(),
+                    Math.round(t.getPricePerMinute() * 100.0),
+                    Math.round(disc * 100.0));
+        }
+    }
+
+    /** Учесть строку снимка в индексе дублей и в агрегатах. */
+    private void indexAdd(Tariff t) {
+        index.merge(TariffKey.of(t), 1, Integer::sum);
+        aggregateAdd(t);
+    }
+
+    /** Учесть строку в агрегатах и поиске городов (отложенные строки — при вливании в снимок). */
+    private void aggregateAdd(Tariff t) {
+        long cents = t.finalPriceCents();
+        totals.add(cents);
+        totalsByType.computeIfAbsent(t.getType(), k -> new PriceAggregate()).add(cents);
+        String key = TariffFilter.cityKey(t.getCity());
+        totalsByCity.computeIfAbsent(key, k -> new PriceAggregate()).add(cents);
+        cityNames.putIfAbsent(key, normCity(t.getCity()));
+        dirtyCities.add(key);
+        cities.add(t.getCity());
+    }
+
+    private void indexRemove(Tariff t) {
+        index.computeIfPresent(TariffKey.of(t), (k, n) -> n > 1 ? n - 1 : null);
+        long cents = t.finalPriceCents();
+        totals.remove(cents);
+        PriceAggregate byType = totalsByType.get(t.getType());
+        if (byType != null) {
+            byType.remove(cents);
+            if (byType.isEmpty()) totalsByType.remove(t.getType());
+        }
+        String key = TariffFilter.cityKey(t.getCity());
+        PriceAggregate byCity = totalsByCity.get(key);
+        if (byCity != null) {
+            byCity.remove(cents);
+            if (byCity.isEmpty()) {
+                totalsByCity.remove(key);
+                cityNames.remove(key);
+            }
+            dirtyCities.add(key);
+        }
+        cities.remove(t.getCity());
+    }
+
+    private void indexClear() {
+        index.clear();
+        totals.clear();
+        totalsByType.clear();
+        totalsByCity.clear();
+        cityNames.clear();
+        dirtyCities.clear();
+        cityBuckets = TariffSnapshot.NO_CITIES;
+        cities.clear();
+    }
+
+    /**
+     * Новый снимок из rows и текущих агрегатов; версия — следующая. Сводки по городам
+     * не пересобираются: копируются лишь корзины городов, изменённых с прошлой публикации
+     * (правка одной строки — одна корзина), остальные корзины общие с прошлым снимком.
+     */
+    private void publish(Tariff[] rows) {
+        EnumMap<TariffType, TariffStatistics.Summary> byType = new EnumMap<>(TariffType.class);
+        totalsByType.forEach((k, v) -> byType.put(k, v.summary()));
+        if (!dirtyCities.isEmpty()) {
+            List<Map<String, TariffSnapshot.CityTotal>> buckets = new ArrayList<>(cityBuckets);
+            boolean[] copied = new boolean[buckets.size()];
+            for (String key : dirtyCities) {
+                int b = TariffSnapshot.bucket(key);
+                if (!copied[b]) {
+                    buckets.set(b, new HashMap<>(buckets.get(b)));
+                    copied[b] = true;
+                }
+                PriceAggregate a = totalsByCity.get(key);
+                if (a == null) buckets.get(b).remove(key);
+                else buckets.get(b).put(key, new TariffSnapshot.CityTotal(cityNames.get(key), a.summary()));
+            }
+            dirtyCities.clear();
+            cityBuckets = List.copyOf(buckets);
+        }
+        snapshot = new TariffSnapshot(snapshot.getVersion() + 1, rows, totals.summary(), byType, cityBuckets);
+    }
+
+    private static int insertionPoint(Tariff[] rows, Tariff t) {
+        int pos = Arrays.binarySearch(rows, t, TariffRepository.NATURAL_ORDER);
+        return pos < 0 ? -(pos + 1) : pos;
+    }
+
+    /** Копия rows со вставленной на pos строкой. */
+    private static Tariff[] with(Tariff[] rows, int pos, Tariff t) {
+        Tariff[] res = new Tariff[rows.length + 1];
+        System.arraycopy(rows, 0, res, 0, pos);
+        res[pos] = t;
+        System.arraycopy(rows, pos, res, pos + 1, rows.length - pos);
+        return res;
+    }
+
+    /** Копия rows без строки pos. */
+    private static Tariff[] without(Tariff[] rows, int pos) {
+        Tariff[] res = new Tariff[rows.length - 1];
+        System.arraycopy(rows, 0, res, 0, pos);
+        System.arraycopy(rows, pos + 1, res, pos, rows.length - pos - 1);
+        return res;
+    }
+
+    /** Вставка с сохранением порядка findAll() (город, тип, цена, id); публикует снимок. */
+    private int insert(Tariff t) {
+        Tariff[] rows = snapshot.rows;
+        int pos = insertionPoint(rows, t);
+        indexAdd(t);
+        publish(with(rows, pos, t));
+        return pos;
+    }
+
+    /**
+     * Вливает пакет новых строк в копию снимка: сортируем только пакет, а строки
+     * снимка между соседними новыми переносим одним arraycopy (границу ищет двоичный поиск) —
+     * без пересортировки всего списка. Возвращает итоговые позиции новых строк по возрастанию.
+     */
+    private int[] merge(List<Tariff> added) {
+        int[] positions = new int[added.size()];
+        if (added.isEmpty()) return positions;
+        added.sort(TariffRepository.NATURAL_ORDER);
+
+        Tariff[] old = snapshot.rows;
+        Tariff[] rows = new Tariff[old.length + added.size()];
+        int i = 0, w = 0;
+        for (int j = 0; j < added.size(); j++) {
+            Tariff x = added.get(j);
+            int pos = Arrays.binarySearch(old, i, old.length, x, TariffRepository.NATURAL_ORDER);
+            if (pos < 0) pos = -(pos + 1);
+            System.arraycopy(old, i, rows, w, pos - i);
+            w += pos - i;
+            i = pos;
+            positions[j] = w;
+            rows[w++] = x;
+        }
+        System.arraycopy(old, i, rows, w, old.length - i);
+        publish(rows);
+        return positions;
     }
-    private static double r2(double v) { return Math.round(v * 100.0) / 100.0; }
 
-    /** «Точный дубль» по смыслу домена (id игнорируем). */
-    private static boolean sameTariff(Tariff a, Tariff b) {
-        return a.getType() == b.getType()
-                && normCity(a.getCity()).equalsIgnoreCase(normCity(b.getCity()))
-                && Double.compare(r2(a.getPricePerMinute()), r2(b.getPricePerMinute())) == 0
-                && Double.compare(r2(a.getDiscountPercent()), b.getType()==TariffType.PRIVILEGED ? r2(b.getDiscountPercent()) : 0.0) == 0;
+    private boolean indexContains(TariffKey key) {
+        return index.containsKey(key);
     }
 
     // ---------- CRUD ----------
-    public void add(Tariff t) {
+    public synchronized void add(Tariff t) {
+        metrics.time("manager.add", () -> doAdd(t));
+    }
+
+    private void doAdd(Tariff t) {
         if (t == null) throw new TariffException("Тариф не задан");
         validateCity(t.getCity());
         validatePrice(t.getPricePerMinute());
         if (t.getType() == TariffType.PRIVILEGED) validateDiscount(t.getDiscountPercent());
         else t.setDiscountPercent(0.0);
 
-        // защита от дублей (по текущему состоянию репозитория)
-        for (Tariff x : repo.findAll()) {
-            if (sameTariff(x, t)) {
-                throw new TariffException("Такой тариф уже существует");
+        // защита от дублей (по индексу текущего состояния)
+        if (indexContains(TariffKey.of(t))) {
+            throw new TariffException("Такой тариф уже существует");
+        }
+
+        Tariff saved = repo.add(new Tariff(normCity(t.getCity()), t.getType(),
+                t.getPricePerMinute(), t.getDiscountPercent()));
+        if (saved.getId() == null) {
+            reload(); // репозиторий не сообщил id — восстанавливаемся полной загрузкой
+            return;
+        }
+        fire(TariffChange.inserted(insert(saved), saved));
+    }
+
+    /**
+     * Пакетное добавление (импорт). Каждая строка проверяется как в add(...),
+     * дубли — и с текущими данными, и внутри пакета — не добавляются.
+     * Возвращает список той же длины: добавленный тариф (с id) либо null для дубля.
+     */
+    public synchronized List<Tariff> addAll(Collection<Tariff> items) {
+        return metrics.time("manager.addAll", () -> doAddAll(items, false));
+    }
+
+    /**
+     * То же для пакетов импорта: строки сразу пишутся в хранилище и видны проверке дублей,
+     * а в снимок и события попадают пачками (см. deferred) — обязательно закончить
+     * publishDeferred(). До этого снимок, агрегаты и индексы строк их ещё не показывают.
+     */
+    public synchronized List<Tariff> addAllDeferred(Collection<Tariff> items) {
+        return metrics.time("manager.addAll", () -> doAddAll(items, true));
+    }
+
+    /** Влить в снимок всё отложенное addAllDeferred(...) (конец импорта). */
+    public synchronized void publishDeferred() {
+        if (deferred.isEmpty()) return;
+        for (Tariff t : deferred) aggregateAdd(t);
+        List<Tariff> added = new ArrayList<>(deferred);
+        deferred.clear();
+        int[] positions = merge(added);
+        fire(TariffChange.inserted(positions, added));
+    }
+
+    private List<Tariff> doAddAll(Collection<Tariff> items, boolean defer) {
+        Set<TariffKey> batchKeys = new HashSet<>();
+        List<Tariff> fresh = new ArrayList<>(items.size());
+        boolean[] accepted = new boolean[items.size()];
+
+        int i = 0;
+        for (Tariff t : items) {
+            if (t == null) throw new TariffException("Тариф не задан");
+            validateCity(t.getCity());
+            validatePrice(t.getPricePerMinute());
+            if (t.getType() == TariffType.PRIVILEGED) validateDiscount(t.getDiscountPercent());
+            else t.setDiscountPercent(0.0);
+
+            TariffKey key = TariffKey.of(t);
+            if (!indexContains(key) && batchKeys.add(key)) {
+                fresh.add(new Tariff(normCity(t.getCity()), t.getType(),
+                        t.getPricePerMinute(), t.getDiscountPercent()));
+                accepted[i] = true;
             }
+            i++;
         }
 
-        repo.add(t);
-        refresh();
+        List<Tariff> saved = repo.addAll(fresh);
+        List<Tariff> res = new ArrayList<>(items.size());
+        int j = 0;
+        for (boolean ok : accepted) {
+            Tariff x = ok ? saved.get(j++) : null;
+            res.add(x == null ? null : TariffSnapshot.copy(x));
+            if (x != null) {
+                index.merge(TariffKey.of(x), 1, Integer::sum);
+                deferred.add(x);
+            }
+        }
+        if (!defer || deferred.size() >= Math.max(MIN_DEFERRED, snapshot.size())) publishDeferred();
+        return res;
     }
 
     /** Обновление по индексу строки в текущей таблице (UI-совместимость). */
-    public void update(int index, Tariff t) {
-        if (index < 0 || index >= cache.size()) throw new TariffException("Неверный индекс");
-        Long id = cache.get(index).getId();
+    public synchronized void update(int index, Tariff t) {
+        metrics.time("manager.update", () -> doUpdate(index, t));
+    }
+
+    private void doUpdate(int index, Tariff t) {
+        Tariff[] rows = snapshot.rows;
+        if (index < 0 || index >= rows.length) throw new TariffException("Неверный индекс");
+        Tariff old = rows[index];
+        Long id = old.getId();
 
         validateCity(t.getCity());
         validatePrice(t.getPricePerMinute());
@@ -94,56 +447,154 @@ public class TariffManager {
         else t.setDiscountPercent(0.0);
 
         // запретить дубль (кроме самой записи)
-        for (Tariff x : repo.findAll()) {
-            if (!x.getId().equals(id) && sameTariff(x, t)) {
-                throw new TariffException("Такой тариф уже существует");
-            }
+        TariffKey key = TariffKey.of(t);
+        int same = this.index.getOrDefault(key, 0);
+        if (key.equals(TariffKey.of(old))) same--;
+        if (same > 0) {
+            throw new TariffException("Такой тариф уже существует");
+        }
+
+        Tariff toSave = new Tariff(id, normCity(t.getCity()), t.getType(), t.getPricePerMinute(), t.getDiscountPercent());
+        if (!repo.update(toSave)) {
+            reload(); // строки уже нет в хранилище — снимок разошёлся с ним
+            throw new TariffException("Тариф с id=" + id + " не найден (данные перечитаны)");
+        }
+        // удаление и вставка — одним снимком: читатель не увидит таблицу без этой строки
+        indexRemove(old);
+        indexAdd(toSave);
+        Tariff[] rest = without(rows, index);
+        int pos = insertionPoint(rest, toSave);
+        publish(with(rest, pos, toSave));
+        if (pos == index) {
+            fire(TariffChange.updated(index, toSave));
+        } else {
+            fire(TariffChange.removed(index));
+            fire(TariffChange.inserted(pos, toSave));
+        }
+    }
+
+    public synchronized void remove(int index) {
+        metrics.time("manager.remove", () -> doRemove(index));
+    }
+
+    private void doRemove(int index) {
+        Tariff[] rows = snapshot.rows;
+        if (index < 0 || index >= rows.length) throw new TariffException("Неверный индекс");
+        Long id = rows[index].getId();
+        if (!repo.delete(id)) {
+            reload(); // строку уже удалили мимо нас — просто перечитываем
+            return;
         }
+        indexRemove(rows[index]);
+        publish(without(rows, index));
+        fire(TariffChange.removed(index));
+    }
 
-        Tariff toSave = new Tariff(id, t.getCity(), t.getType(), t.getPricePerMinute(), t.getDiscountPercent());
-        repo.update(toSave);
-        refresh();
+    /**
+     * Удаление набора строк (например, откат отменённого импорта):
+     * одна операция репозитория и один проход по снимку.
+     */
+    public synchronized int removeAll(Collection<Tariff> items) {
+        return metrics.time("manager.removeAll", () -> doRemoveAll(items));
+    }
+
+    private int doRemoveAll(Collection<Tariff> items) {
+        publishDeferred(); // строки отменённого импорта могут быть ещё не в снимке
+        Set<Long> ids = new HashSet<>();
+        for (Tariff t : items) {
+            if (t != null && t.getId() != null) ids.add(t.getId());
+        }
+        if (ids.isEmpty()) return 0;
+        int n = repo.deleteByIds(ids);
+        Tariff[] old = snapshot.rows;
+        Tariff[] rows = new Tariff[old.length];
+        int w = 0;
+        for (Tariff t : old) {
+            if (ids.contains(t.getId())) indexRemove(t);
+            else rows[w++] = t;
+        }
+        publish(Arrays.copyOf(rows, w));
+        fire(TariffChange.reset(snapshot));
+        return n;
     }
 
-    public void remove(int index) {
-        if (index < 0 || index >= cache.size()) throw new TariffException("Неверный индекс");
-        Long id = cache.get(index).getId();
-        repo.delete(id);
-        refresh();
+    public synchronized void clear() {
+        metrics.time("manager.clear", this::doClear);
     }
 
-    public void clear() {
+    private void doClear() {
         repo.deleteAll();
-        refresh();
+        deferred.clear();
+        indexClear();
+        publish(new Tariff[0]);
+        fire(TariffChange.reset(snapshot));
     }
 
-    // ---------- агрегации/массовые операции ----------
+    // ---------- агрегации (по снимку, без блокировок) / массовые операции ----------
     public double averageFinalPrice() {
-        if (cache.isEmpty()) throw new TariffException("Нет тарифов");
-        double sum = 0;
-        for (Tariff t : cache) sum += t.finalPrice();
-        return sum / cache.size();
+        return metrics.time("manager.averageFinalPrice", () -> snapshot.averageFinalPrice());
     }
 
     public double totalFinalPrice() {
-        if (cache.isEmpty()) throw new TariffException("Нет тарифов");
-        double sum = 0;
-        for (Tariff t : cache) sum += t.finalPrice();
-        return sum;
+        return metrics.time("manager.totalFinalPrice", () -> snapshot.totalFinalPrice());
+    }
+
+    /** Агрегаты (всего, по типам, по городам) текущего снимка; см. TariffSnapshot.statistics(). */
+    public TariffStatistics statistics() {
+        return metrics.time("manager.statistics", () -> snapshot.statistics());
     }
 
     public void increaseAllPrices(double percent) {
-        double factor = 1.0 + percent / 100.0;
-        if (factor <= 0.0) throw new TariffException("Процент слишком мал: цена станет ≤ 0");
-        if (percent > 100) throw new TariffException("Процент не должен превышать 100");
+        increasePrices(percent, TariffFilter.all(), ProgressMonitor.NONE);
+    }
 
-        for (Tariff x : repo.findAll()) {
-            double newPrice = r2(x.getPricePerMinute() * factor);
-            validatePrice(newPrice);
-            Tariff upd = new Tariff(x.getId(), x.getCity(), x.getType(), newPrice, x.getDiscountPercent());
-            repo.update(upd);
+    public void increasePrices(double percent, TariffFilter filter) {
+        increasePrices(percent, filter, ProgressMonitor.NONE);
+    }
+
+    /**
+     * Изменение цен отобранных тарифов на percent одной операцией репозитория:
+     * либо меняются все цены, либо (при выходе за диапазон/дубле/отмене) ни одна.
+     */
+    public synchronized void increasePrices(double percent, TariffFilter filter, ProgressMonitor monitor) {
+        metrics.time("manager.increasePrices", () -> doIncreasePrices(percent, filter, monitor));
+    }
+
+    private void doIncreasePrices(double percent, TariffFilter filter, ProgressMonitor monitor) {
+        double factor = priceFactor(percent);
+        publishDeferred();
+        int changed = repo.scalePrices(factor, filter, monitor);
+        if (changed > 0) scaleSnapshot(factor, filter, changed);
+    }
+
+    /**
+     * Те же новые цены — в снимок, без перечитывания: множитель и округление до копеек, как
+     * у хранилища (WriteBehindTariffRepository, InMemoryTariffRepository). Порядок строк мог
+     * измениться (цена — часть ключа), поэтому копия снимка досортировывается — почти
+     * упорядоченный массив TimSort проходит за O(n). Если отобралось не столько строк,
+     * сколько изменило хранилище, снимок разошёлся с ним — тогда reload().
+     */
+    private void scaleSnapshot(double factor, TariffFilter filter, int changed) {
+        Tariff[] rows = snapshot.rows.clone();
+        List<Tariff> olds = new ArrayList<>();
+        List<Tariff> news = new ArrayList<>();
+        for (int i = 0; i < rows.length; i++) {
+            Tariff t = rows[i];
+            if (filter != null && !filter.isAll() && !filter.matches(t)) continue;
+            double p = Math.round(t.getPricePerMinute() * factor * 100.0) / 100.0;
+            rows[i] = new Tariff(t.getId(), t.getCity(), t.getType(), p, t.getDiscountPercent());
+            olds.add(t);
+            news.add(rows[i]);
+        }
+        if (news.size() != changed) {
+            reload();
+            return;
         }
-        refresh();
+        for (Tariff t : olds) indexRemove(t);
+        for (Tariff t : news) indexAdd(t);
+        Arrays.sort(rows, TariffRepository.NATURAL_ORDER);
+        publish(rows);
+        fire(TariffChange.reset(snapshot));
     }
 
     // удобные хелперы как раньше
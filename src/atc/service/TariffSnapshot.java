@@ -0,0 +1,117 @@
+package atc.service;
+
+import atc.data.TariffRepository;
+import atc.data.TariffRowVisitor;
+import atc.model.Tariff;
+import atc.model.TariffType;
+
+import java.util.*;
+
+/**
+ * Неизменяемый снимок данных TariffManager: строки в порядке findAll() и агрегаты
+ * итоговых цен на момент публикации. Каждое изменение публикует новый снимок с большим
+ * version, старые не меняются — читатель берёт TariffManager.snapshot() без блокировок
+ * и работает с согласованными данными (экспорт, тарификация, статистика), пока UI правит таблицу.
+ *
+ * Строки Tariff (изменяемые) общие для соседних снимков, поэтому наружу — getTariffs(),
+ * события TariffChange — уходят только их копии; внутри менеджера строки не меняются.
+ */
+public final class TariffSnapshot {
+    /** Сводка города: написание для показа и агрегат. */
+    record CityTotal(String city, TariffStatistics.Summary summary) {}
+
+    /** Сводки по городам лежат в CITY_BUCKETS корзинах по хэшу ключа города. */
+    static final int CITY_BUCKETS = 64;
+    static final List<Map<String, CityTotal>> NO_CITIES =
+            Collections.<Map<String, CityTotal>>nCopies(CITY_BUCKETS, Map.of());
+
+    static final TariffSnapshot EMPTY = new TariffSnapshot(0, new Tariff[0],
+            new TariffStatistics.Summary(0, 0, 0, 0), new EnumMap<>(TariffType.class), NO_CITIES);
+
+    private final long version;
+    /** Отсортирован по NATURAL_ORDER; менеджер строит следующий снимок из копии. */
+    final Tariff[] rows;
+    private final List<Tariff> list;
+    private final TariffStatistics.Summary overall;
+    private final EnumMap<TariffType, TariffStatistics.Summary> byType;
+    /** Ключ города → сводка, по корзинам; корзины не меняются (менеджер копирует изменённые). */
+    private final List<Map<String, CityTotal>> byCity;
+    /** Карта по городам в алфавитном порядке собирается при первом запросе статистики. */
+    private volatile TariffStatistics statistics;
+
+    /** Агрегаты приходят готовыми из бегущих агрегатов менеджера — снимок строки не пересчитывает. */
+    TariffSnapshot(long version, Tariff[] rows, TariffStatistics.Summary overall,
+                   EnumMap<TariffType, TariffStatistics.Summary> byType,
+                   List<Map<String, CityTotal>> byCity) {
+        this.version = version;
+        this.rows = rows;
+        this.list = new Copies(rows);
+        this.overall = overall;
+        this.byType = byType;
+        this.byCity = byCity;
+    }
+
+    static int bucket(String cityKey) {
+        return cityKey.hashCode() & (CITY_BUCKETS - 1);
+    }
+
+    /** Номер версии: растёт с каждым изменением данных менеджера. */
+    public long getVersion() { return version; }
+
+    /** Строки снимка: неизменяемый список, каждое обращение отдаёт копию строки. */
+    public List<Tariff> getTariffs() { return list; }
+
+    public int size() { return rows.length; }
+
+    /** Позиция тарифа в снимке (по порядку findAll и id) или -1. */
+    public int indexOf(Tariff t) {
+        if (t == null || t.getId() == null) return -1;
+        int pos = Arrays.binarySearch(rows, t, TariffRepository.NATURAL_ORDER);
+        return pos >= 0 ? pos : -1;
+    }
+
+    public double averageFinalPrice() {
+        if (overall.getCount() == 0) throw new TariffException("Нет тарифов");
+        return overall.getAverage();
+    }
+
+    public double totalFinalPrice() {
+        if (overall.getCount() == 0) throw new TariffException("Нет тарифов");
+        return overall.getTotal();
+    }
+
+    /** Агрегаты снимка: всего, по типам и по городам (готовые сводки, строки не перебираются). */
+    public TariffStatistics statistics() {
+        TariffStatistics s = statistics;
+        if (s == null) {
+            TreeMap<String, TariffStatistics.Summary> cities = new TreeMap<>();
+            for (Map<String, CityTotal> b : byCity) {
+                for (CityTotal c : b.values()) cities.put(c.city(), c.summary());
+            }
+            statistics = s = new TariffStatistics(overall, new EnumMap<>(byType), cities);
+        }
+        return s;
+    }
+
+    /** Обход строк снимка в порядке NATURAL_ORDER (экспорт). */
+    public void forEachRow(TariffRowVisitor visitor) {
+        for (Tariff t : rows) {
+            visitor.row(t.getId(), t.getCity(), t.getType(), t.getPricePerMinute(), t.getDiscountPercent());
+        }
+    }
+
+    /** Копия строки снимка для отдачи наружу. */
+    static Tariff copy(Tariff t) {
+        return new Tariff(t.getId(), t.getCity(), t.getType(), t.getPricePerMinute(), t.getDiscountPercent());
+    }
+
+    /** Список над массивом снимка, который не выдаёт сами строки: get(i) копирует. */
+    private static final class Copies extends AbstractList<Tariff> implements RandomAccess {
+        private final Tariff[] rows;
+
+        Copies(Tariff[] rows) { this.rows = rows; }
+
+        @Override public Tariff get(int i) { return copy(rows[i]); }
+        @Override public int size() { return rows.length; }
+    }
+}
@@ -0,0 +1,51 @@
+package atc.service;
+
+import atc.model.TariffType;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Снимок агрегатов по итоговой цене (руб/мин): по всем тарифам, по типам и по городам.
+ * Суммы ведутся в копейках, поэтому не копят ошибку округления double.
+ */
+public final class TariffStatistics {
+
+    /** Агрегат одной группы. */
+    public static final class Summary {
+        private final long count, totalCents, minCents, maxCents;
+
+        Summary(long count, long totalCents, long minCents, long maxCents) {
+            this.count = count;
+            this.totalCents = totalCents;
+            this.minCents = minCents;
+            this.maxCents = maxCents;
+        }
+
+        public long getCount() { return count; }
+        public double getTotal() { return totalCents / 100.0; }
+        public double getAverage() { return count == 0 ? 0.0 : totalCents / 100.0 / count; }
+        public double getMin() { return minCents / 100.0; }
+        public double getMax() { return maxCents / 100.0; }
+    }
+
+    private final Summary overall;
+    private final Map<TariffType, Summary> byType;
+    private final Map<String, Summary> byCity;
+
+    TariffStatistics(Summary overall, EnumMap<TariffType, Summary> byType, TreeMap<String, Summary> byCity) {
+        this.overall = overall;
+        this.byType = Collections.unmodifiableMap(byType);
+        this.byCity = Collections.unmodifiableMap(byCity);
+    }
+
+    public Summary getOverall() { return overall; }
+
+    /** Только типы, для которых есть тарифы. */
+    public Map<TariffType, Summary> getByType() { return byType; }
+
+    /** По городам в алфавитном порядке; написания одного города («Москва», «москва») — одна группа. */
+    public Map<String, Summary> getByCity() { return byCity; }
+}
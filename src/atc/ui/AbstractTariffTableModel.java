@@ -0,0 +1,102 @@
+package atc.ui;
+
+import atc.model.Tariff;
+import atc.model.TariffType;
+import atc.service.TariffChange;
+import atc.service.TariffManager;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Общие колонки таблицы тарифов; откуда берутся строки — решают наследники.
+ *
+ * События менеджера приходят в потоке, который меняет данные. Из EDT они
+ * применяются сразу, из фоновой задачи — копятся и раз в COALESCE_MS
+ * передаются наследнику одной пачкой (см. apply).
+ */
+public abstract class AbstractTariffTableModel extends AbstractTableModel {
+
+    /** Как часто фоновые изменения доходят до таблицы. */
+    private static final int COALESCE_MS = 150;
+
+    private final ConcurrentLinkedQueue<TariffChange> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Timer flush = new Timer(COALESCE_MS, e -> drain());
+
+    private final String[] cols = {
+            "Город",
+            "Тип",
+            "Цена, руб/мин",
+            "Скидка, %",
+            "Итоговая цена, руб/мин"
+    };
+
+    /** Тариф для строки модели (может подгрузить его из хранилища). */
+    public abstract Tariff getAt(int modelRow);
+
+    /** Тариф, если он уже под рукой, иначе null — вызывается при отрисовке, не должен блокировать. */
+    protected abstract Tariff peek(int modelRow);
+
+    public abstract void fireAll();
+
+    /** Применить пачку событий (в EDT, по порядку). */
+    protected abstract void apply(List<TariffChange> changes);
+
+    protected final void listen(TariffManager manager) {
+        flush.setRepeats(false);
+        manager.addChangeListener(this::post);
+    }
+
+    private void post(TariffChange c) {
+        if (SwingUtilities.isEventDispatchThread() && incoming.isEmpty()) {
+            apply(List.of(c));
+            return;
+        }
+        incoming.add(c);
+        if (scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(flush::restart);
+        }
+    }
+
+    /** Есть события, ещё не переданные в apply. */
+    protected final boolean changesQueued() {
+        return !incoming.isEmpty();
+    }
+
+    private void drain() {
+        scheduled.set(false);
+        List<TariffChange> batch = new ArrayList<>();
+        for (TariffChange c; (c = incoming.poll()) != null; ) batch.add(c);
+        if (!batch.isEmpty()) apply(batch);
+    }
+
+    @Override public int getColumnCount() { return cols.length; }
+    @Override public String getColumnName(int col) { return cols[col]; }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return switch (columnIndex) {
+            case 0, 1 -> String.class;
+            default -> Double.class;
+        };
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        Tariff t = peek(rowIndex);
+        if (t == null) return columnIndex == 0 ? "загрузка…" : null;
+        return switch (columnIndex) {
+            case 0 -> t.getCity();
+            case 1 -> t.getType().toString();
+            case 2 -> t.getPricePerMinute();
+            case 3 -> t.getType() == TariffType.PRIVILEGED ? t.getDiscountPercent() : 0.0;
+            case 4 -> t.finalPrice();
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,128 @@
+package atc.ui;
+
+import atc.service.ProgressMonitor;
+import atc.service.TariffException;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Долгая операция вне EDT: модальное окно с ходом и кнопкой «Отмена».
+ *
+ * Отмена лишь выставляет флаг — операция сама замечает его через
+ * ProgressMonitor, откатывает сделанное и бросает CancellationException.
+ * Окно закрывается только после этого, так что откат не обгоняет интерфейс.
+ */
+final class BackgroundTask<T> extends SwingWorker<T, Void> {
+
+    /** Тело задачи; выполняется в фоновом потоке. */
+    @FunctionalInterface
+    interface Body<T> {
+        T run(ProgressMonitor monitor);
+    }
+
+    private final Body<T> body;
+    private final Consumer<T> onSuccess;
+    private final Component parent;
+    private final String title;
+    private final JDialog dialog;
+    private final JProgressBar bar = new JProgressBar(0, 1000);
+    private final JButton cancel = new JButton("Отмена");
+
+    private volatile boolean cancelRequested;
+    private volatile long done, total;
+
+    private final ProgressMonitor monitor = new ProgressMonitor() {
+        @Override
+        public void progress(long d, long t) {
+            done = d;
+            total = t;
+            // setProgress сам сливает частые обновления в одно событие
+            setProgress(t > 0 ? (int) Math.min(100, d * 100 / t) : 0);
+        }
+
+        @Override
+        public boolean isCancelled() { return cancelRequested; }
+    };
+
+    private BackgroundTask(Component parent, String title, Body<T> body, Consumer<T> onSuccess) {
+        this.parent = parent;
+        this.title = title;
+        this.body = body;
+        this.onSuccess = onSuccess;
+
+        Window owner = parent == null ? null : SwingUtilities.getWindowAncestor(parent);
+        dialog = new JDialog(owner, title, Dialog.ModalityType.APPLICATION_MODAL);
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+
+        bar.setIndeterminate(true);
+        bar.setStringPainted(true);
+        bar.setString("");
+        bar.setPreferredSize(new Dimension(360, 22));
+        cancel.addActionListener(e -> requestCancel());
+
+        JPanel p = new JPanel(new BorderLayout(8, 8));
+        p.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+        p.add(bar, BorderLayout.CENTER);
+        JPanel south = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+        south.add(cancel);
+        p.add(south, BorderLayout.SOUTH);
+        dialog.setContentPane(p);
+        dialog.pack();
+        dialog.setLocationRelativeTo(parent);
+
+        addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) showProgress();
+        });
+    }
+
+    /** Запустить body в фоне; onSuccess (в EDT) получает результат, ошибки и отмена показываются здесь. */
+    static <T> void run(Component parent, String title, Body<T> body, Consumer<T> onSuccess) {
+        BackgroundTask<T> task = new BackgroundTask<>(parent, title, body, onSuccess);
+        task.execute();
+        task.dialog.setVisible(true); // модально до done()
+    }
+
+    @Override
+    protected T doInBackground() {
+        return body.run(monitor);
+    }
+
+    private void requestCancel() {
+        cancelRequested = true;
+        cancel.setEnabled(false);
+        bar.setIndeterminate(true);
+        bar.setString("Отмена…");
+    }
+
+    private void showProgress() {
+        if (cancelRequested) return;
+        long t = total;
+        if (t <= 0) return;
+        bar.setIndeterminate(false);
+        bar.setValue((int) Math.min(1000, done * 1000 / t));
+        bar.setString(getProgress() + "%");
+    }
+
+    @Override
+    protected void done() {
+        dialog.dispose();
+        try {
+            onSuccess.accept(get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CancellationException) {
+                JOptionPane.showMessageDialog(parent, "Операция отменена, изменения откатены.",
+                        title, JOptionPane.INFORMATION_MESSAGE);
+            } else {
+                String msg = cause instanceof TariffException ? cause.getMessage() : String.valueOf(cause);
+                JOptionPane.showMessageDialog(parent, msg, "Ошибка", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package atc.ui;
+
+import atc.service.CitySearchIndex;
+import atc.service.TariffManager;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Подсказки городов под полем ввода: обновляются на каждое изменение текста
+ * (поиск по индексу городов менеджера, без обращения к БД).
+ * ↑/↓ — выбор, Enter или щелчок — принять, Esc — закрыть.
+ * onPick получает ключ города (Match.getKey), а не написание — для отбора по всем написаниям.
+ */
+final class CitySuggestPopup {
+    private static final int LIMIT = 12;
+
+    private final JTextField field;
+    private final TariffManager manager;
+    private final Consumer<String> onPick;
+
+    private final JPopupMenu popup = new JPopupMenu();
+    private final DefaultListModel<CitySearchIndex.Match> items = new DefaultListModel<>();
+    private final JList<CitySearchIndex.Match> list = new JList<>(items);
+    /** Текст меняем сами (выбор подсказки) — не искать заново. */
+    private boolean picking;
+
+    CitySuggestPopup(JTextField field, TariffManager manager, Consumer<String> onPick) {
+        this.field = field;
+        this.manager = manager;
+        this.onPick = onPick;
+
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setFocusable(false);
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int i = list.locationToIndex(e.getPoint());
+                if (i >= 0) pick(items.get(i));
+            }
+        });
+        JScrollPane sp = new JScrollPane(list);
+        sp.setBorder(BorderFactory.createEmptyBorder());
+        popup.add(sp);
+        popup.setFocusable(false);
+
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { changed(); }
+            @Override public void removeUpdate(DocumentEvent e) { changed(); }
+            @Override public void changedUpdate(DocumentEvent e) { }
+        });
+        // слушатель клавиш срабатывает раньше привязок поля: поглощённый Enter не запустит его action
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (!popup.isVisible()) return;
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_DOWN -> move(1);
+                    case KeyEvent.VK_UP -> move(-1);
+                    case KeyEvent.VK_ESCAPE -> popup.setVisible(false);
+                    case KeyEvent.VK_ENTER -> {
+                        CitySearchIndex.Match m = list.getSelectedValue();
+                        if (m == null) return;
+                        pick(m);
+                    }
+                    default -> { return; }
+                }
+                e.consume();
+            }
+        });
+    }
+
+    private void changed() {
+        if (!picking) SwingUtilities.invokeLater(this::refresh);
+    }
+
+    private void refresh() {
+        String text = field.getText();
+        List<CitySearchIndex.Match> found = text.isBlank() ? List.of() : manager.searchCities(text, LIMIT);
+        if (found.isEmpty() || !field.isShowing()) {
+            popup.setVisible(false);
+            return;
+        }
+        items.clear();
+        items.addAll(found);
+        list.setVisibleRowCount(Math.min(found.size(), 8));
+        list.clearSelection();
+        popup.pack();
+        if (!popup.isVisible()) popup.show(field, 0, field.getHeight());
+        field.requestFocusInWindow();
+    }
+
+    private void move(int delta) {
+        int n = items.getSize();
+        int i = Math.floorMod(list.getSelectedIndex() + delta, n);
+        list.setSelectedIndex(i);
+        list.ensureIndexIsVisible(i);
+    }
+
+    private void pick(CitySearchIndex.Match m) {
+        popup.setVisible(false);
+        picking = true;
+        try {
+            field.setText(m.getCity());
+        } finally {
+            picking = false;
+        }
+        onPick.accept(m.getKey());
+    }
+}
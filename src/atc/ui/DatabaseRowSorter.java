@@ -0,0 +1,76 @@
+package atc.ui;
+
+import atc.data.TariffSort;
+
+import javax.swing.*;
+import java.util.List;
+
+/**
+ * Сортировщик JTable, который ничего не сортирует сам: щелчок по заголовку
+ * превращается в TariffSort модели, а порядок строк задаёт ORDER BY в БД.
+ * Индексы вида и модели совпадают; стрелки в заголовке рисуются как обычно.
+ */
+final class DatabaseRowSorter extends RowSorter<PagedTariffTableModel> {
+
+    /** Колонка таблицы → ключ порядка (в том же порядке, что колонки модели). */
+    private static final TariffSort.Key[] KEYS = {
+            TariffSort.Key.CITY,
+            TariffSort.Key.TYPE,
+            TariffSort.Key.PRICE,
+            TariffSort.Key.DISCOUNT,
+            TariffSort.Key.FINAL_PRICE
+    };
+
+    private final PagedTariffTableModel model;
+
+    DatabaseRowSorter(PagedTariffTableModel model) {
+        this.model = model;
+    }
+
+    @Override public PagedTariffTableModel getModel() { return model; }
+
+    @Override
+    public void toggleSortOrder(int column) {
+        if (column < 0 || column >= KEYS.length) return;
+        TariffSort cur = model.getSort();
+        boolean asc = cur.getKey() != KEYS[column] || !cur.isAscending();
+        apply(TariffSort.of(KEYS[column], asc));
+    }
+
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        TariffSort s = model.getSort();
+        return List.of(new SortKey(s.getKey().ordinal(),
+                s.isAscending() ? SortOrder.ASCENDING : SortOrder.DESCENDING));
+    }
+
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        if (keys == null || keys.isEmpty() || keys.get(0).getSortOrder() == SortOrder.UNSORTED) {
+            apply(TariffSort.NATURAL);
+            return;
+        }
+        SortKey k = keys.get(0);
+        if (k.getColumn() < 0 || k.getColumn() >= KEYS.length) return;
+        apply(TariffSort.of(KEYS[k.getColumn()], k.getSortOrder() == SortOrder.ASCENDING));
+    }
+
+    private void apply(TariffSort sort) {
+        if (sort.equals(model.getSort())) return;
+        model.setQuery(model.getFilter(), sort);
+        fireSortOrderChanged();
+    }
+
+    @Override public int convertRowIndexToModel(int index) { return index; }
+    @Override public int convertRowIndexToView(int index) { return index; }
+    @Override public int getViewRowCount() { return model.getRowCount(); }
+    @Override public int getModelRowCount() { return model.getRowCount(); }
+
+    // строки уже упорядочены хранилищем — пересчитывать нечего
+    @Override public void modelStructureChanged() {}
+    @Override public void allRowsChanged() {}
+    @Override public void rowsInserted(int firstRow, int endRow) {}
+    @Override public void rowsDeleted(int firstRow, int endRow) {}
+    @Override public void rowsUpdated(int firstRow, int endRow) {}
+    @Override public void rowsUpdated(int firstRow, int endRow, int column) {}
+}
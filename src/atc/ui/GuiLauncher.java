@@ -0,0 +1,127 @@
+package atc.ui;
+
+import atc.data.InstrumentedTariffRepository;
+import atc.data.SqliteStorageProfile;
+import atc.data.SqliteTariffRepository;
+import atc.data.WriteBehindTariffRepository;
+import atc.metrics.Metrics;
+import atc.metrics.StartupTimer;
+import atc.service.TariffException;
+import atc.service.TariffManager;
+
+import javax.management.JMException;
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Запуск окна. Всё, что касается AWT/Swing, — здесь, а не в atc.App: пакетный режим
+ * не должен загружать ни одного класса AWT.
+ *
+ * Порядок: окно — сразу, в состоянии загрузки; в потоке atc-startup открывается БД,
+ * первая страница таблицы читается прямо из неё (COUNT и LIMIT по индексу); только потом
+ * таблица целиком читается в память (WriteBehindTariffRepository, TariffManager) и
+ * подключается правка. Этапы — в логе «atc.startup» (StartupTimer).
+ */
+public final class GuiLauncher {
+
+    /** Сколько ждать первую страницу, прежде чем всё же начать чтение всей таблицы. */
+    private static final long FIRST_PAGE_WAIT_MS = 5_000;
+
+    private GuiLauncher() { }
+
+    public static void start() {
+        StartupTimer timer = StartupTimer.start();
+        SwingUtilities.invokeLater(() -> {
+            try {
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+            } catch (Exception ignored) {}
+
+            MainFrame f = new MainFrame();
+            f.setMinimumSize(new Dimension(900, 520));
+            f.setLocationRelativeTo(null);
+            f.setVisible(true);
+            // отрисовка уже в очереди EDT — отметка встанет после неё
+            SwingUtilities.invokeLater(() -> timer.phase("окно показано"));
+
+            new Thread(() -> load(f, timer), "atc-startup").start();
+        });
+    }
+
+    /** Открыть БД, показать первую страницу, затем подключить менеджер (вне EDT). */
+    private static void load(MainFrame f, StartupTimer timer) {
+        try {
+            // ВАЖНО: один-единственный файл БД — atc.db в корне проекта
+            // режим хранения: по умолчанию журнал отката и synchronous=FULL, одно соединение;
+            // WAL и пул читателей для страниц, COUNT и экспорта — -Datc.sql.profile=wal (см. SqliteStorageProfile)
+            SqliteTariffRepository db = new SqliteTariffRepository(
+                    "jdbc:sqlite:atc.db", SqliteStorageProfile.fromSystemProperties());
+            timer.phase("БД открыта");
+
+            // первая страница — из БД, пока никто не держит её монитор чтением всей таблицы
+            CountDownLatch firstPage = new CountDownLatch(1);
+            SwingUtilities.invokeLater(() -> f.attach(db, () -> {
+                timer.phase("первая страница");
+                firstPage.countDown();
+            }));
+            awaitFirstPage(firstPage);
+
+            // правки пишутся в БД пакетами в фоне (см. WriteBehindTariffRepository)
+            WriteBehindTariffRepository repo = new WriteBehindTariffRepository(db);
+            timer.phase("таблица в памяти");
+            // при любом завершении JVM (в т.ч. EXIT_ON_CLOSE) дописываем очередь и закрываем БД
+            Runtime.getRuntime().addShutdownHook(new Thread(repo::close, "atc-db-close"));
+            // метрики операций и порог медленного SQL — в JMX (atc:type=Metrics)
+            Metrics metrics = new Metrics(db.getSlowSqlLog());
+            try {
+                metrics.register();
+            } catch (JMException e) {
+                // приложение работает и без JMX, но молча терять метрики нельзя
+                Logger.getLogger("atc.metrics").log(Level.WARNING,
+                        "Метрики не зарегистрированы в JMX (" + Metrics.OBJECT_NAME + ")", e);
+            }
+            // repo.* — вызовы хранилища из менеджера, writeBehind.applyBatch — сами транзакции SQLite
+            repo.setMetrics(metrics);
+            TariffManager manager = new TariffManager(new InstrumentedTariffRepository(repo, metrics));
+            manager.setMetrics(metrics);
+            // БД изменили в обход (другой процесс): отвергнутые правки отброшены, хранилище перечитано —
+            // перечитываем и менеджер (в своём потоке: он ждёт монитор менеджера) и сообщаем в окне
+            repo.setRejectionListener(e -> {
+                new Thread(manager::reload, "atc-reload").start();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(
+                        f, e.getMessage(), "Изменения не записаны", JOptionPane.WARNING_MESSAGE));
+            });
+            timer.phase("тарифы загружены");
+
+            SwingUtilities.invokeLater(() -> {
+                f.connect(manager);
+                timer.phase("правка доступна");
+                timer.done();
+            });
+        } catch (TariffException ex) {
+            timer.phase("ошибка БД");
+            timer.done();
+            SwingUtilities.invokeLater(() -> {
+                f.loadFailed(ex.getMessage());
+                JOptionPane.showMessageDialog(
+                        f,
+                        ex.getMessage(),
+                        "Ошибка работы с БД",
+                        JOptionPane.ERROR_MESSAGE
+                );
+            });
+        }
+    }
+
+    /** Первая страница могла не прочитаться (ошибка БД) — тогда не ждём её дольше FIRST_PAGE_WAIT_MS. */
+    private static void awaitFirstPage(CountDownLatch firstPage) {
+        try {
+            firstPage.await(FIRST_PAGE_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
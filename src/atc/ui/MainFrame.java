@@ -1,26 +1,65 @@
 package atc.ui;
 
+import atc.data.TariffFilter;
+import atc.data.TariffRepository;
+import atc.io.CdrCsvIO;
 import atc.io.CsvIO;
 import atc.model.Tariff;
+import atc.model.TariffType;
+import atc.rating.CallRatingEngine;
+import atc.service.TariffChange;
 import atc.service.TariffException;
 import atc.service.TariffManager;
+import atc.service.TariffStatistics;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import javax.swing.table.TableRowSorter;
+import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.io.File;
-
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Главное окно. Показывается сразу, до открытия БД: пока данных нет, таблица пуста,
+ * внизу — ход загрузки, действия над тарифами выключены. attach(repo) показывает строки
+ * прямо из хранилища (только чтение), connect(manager) включает правку, отбор и сортировку;
+ * строки таблица дочитывает страницами в фоне (PagedTariffTableModel).
+ */
 public class MainFrame extends JFrame {
 
-    private final TariffManager manager;
-    private final TariffTableModel model;
+    // до attach/connect — null; меняются только в EDT
+    private TariffManager manager;
+    private PagedTariffTableModel model;
     private JTable table;
-
-    public MainFrame(TariffManager manager) {
+    /** Первые строки уже видны (или таблица пуста). */
+    private boolean firstShown;
+    private boolean failed;
+
+    /** Что включается, когда данные подключены. */
+    private final List<Component> needsData = new ArrayList<>();
+    private final JPanel statusBar = new JPanel(new BorderLayout(8, 0));
+    private final JLabel status = new JLabel("Открытие базы данных…");
+    private final JProgressBar busy = new JProgressBar();
+
+    // панель отбора: подстрока города, тип, диапазон цены
+    private final JTextField cityField = new JTextField(14);
+    private final JComboBox<Object> typeBox = new JComboBox<>(new Object[]{"Все", TariffType.REGULAR, TariffType.PRIVILEGED});
+    private final JTextField minPriceField = new JTextField(6);
+    private final JTextField maxPriceField = new JTextField(6);
+    /**
+     * Ключ города, выбранного из подсказок (TariffFilter.cityKey): отбор по city_key (индекс),
+     * а не по подстроке — подсказка объединяет написания «Москва»/«москва», отбор тоже.
+     */
+    private String pickedCityKey;
+
+    /** Окно в состоянии загрузки; данные — attach(repo) и connect(manager). */
+    public MainFrame() {
         super("АТС — тарифы (Swing)");
-        this.manager = manager;
-        this.model = new TariffTableModel(manager);
 
         buildUI();
         setDefaultCloseOperation(EXIT_ON_CLOSE);
@@ -28,11 +67,90 @@ public class MainFrame extends JFrame {
         setLocationRelativeTo(null);
     }
 
+    public MainFrame(TariffManager manager) {
+        this();
+        connect(manager);
+    }
+
+    /**
+     * Показать строки прямо из хранилища, пока менеджер ещё строится (вызывать в EDT, один раз):
+     * число строк — сразу, сами строки — фоновыми загрузками страниц. Действия остаются
+     * выключенными до connect(...). firstRows вызывается в EDT, когда видны первые строки
+     * (или таблица пуста).
+     */
+    public void attach(TariffRepository repo, Runnable firstRows) {
+        if (model != null) throw new IllegalStateException("данные уже подключены");
+        showRows(new PagedTariffTableModel(repo), firstRows);
+    }
+
+    /** Подключить менеджер (в EDT, один раз): правка, отбор, сортировка и подсказки городов. */
+    public void connect(TariffManager manager) {
+        if (this.manager != null) throw new IllegalStateException("данные уже подключены");
+        this.manager = manager;
+        if (model == null) showRows(new PagedTariffTableModel(manager), () -> { });
+        else model.connect(manager);
+        // сортирует и отбирает БД (ORDER BY / WHERE), сортировщик лишь передаёт ей щелчки по заголовку;
+        // до менеджера его нет: пересчёт строк в EDT ждал бы чтения всей таблицы
+        table.setRowSorter(new DatabaseRowSorter(model));
+        new CitySuggestPopup(cityField, manager, key -> {
+            pickedCityKey = key;
+            onFilter();
+        });
+        needsData.forEach(c -> c.setEnabled(true));
+        updateStatus();
+    }
+
+    private void showRows(PagedTariffTableModel model, Runnable firstRows) {
+        this.model = model;
+        table.setModel(model);
+        model.setReselectListener(row -> {
+            int view = table.convertRowIndexToView(row);
+            if (view >= 0) table.setRowSelectionInterval(view, view);
+        });
+        if (model.getRowCount() == 0) {
+            firstShown = true;
+            updateStatus();
+            firstRows.run();
+            return;
+        }
+        updateStatus();
+        model.addTableModelListener(new TableModelListener() {
+            @Override
+            public void tableChanged(TableModelEvent e) {
+                if (model.getRowCount() > 0 && !model.isLoaded(0)) return;
+                model.removeTableModelListener(this);
+                firstShown = true;
+                updateStatus();
+                // перерисовка уже в очереди EDT — отметка встанет после неё
+                SwingUtilities.invokeLater(firstRows);
+            }
+        });
+    }
+
+    /** Строка состояния: ход загрузки, пока нет первых строк или менеджера; затем скрыта. */
+    private void updateStatus() {
+        if (failed) return;
+        if (firstShown && manager != null) {
+            statusBar.setVisible(false);
+        } else if (!firstShown) {
+            status.setText("Загрузка тарифов: " + model.getRowCount() + "…");
+        } else {
+            status.setText("Подготовка к правке…");
+        }
+    }
+
+    /** Данные подключить не удалось: окно остаётся, в строке состояния — причина. */
+    public void loadFailed(String message) {
+        failed = true;
+        busy.setVisible(false);
+        statusBar.setVisible(true);
+        status.setText("Не удалось открыть базу данных: " + message);
+    }
+
     private void buildUI() {
-        table = new JTable(model);
+        // до attach/connect — пустая таблица с теми же колонками, чтобы окно не перестраивалось
+        table = new JTable(new EmptyTableModel());
         table.setRowHeight(24);
-        table.setAutoCreateRowSorter(true);
-        table.setRowSorter(new TableRowSorter<>(model));
 
         JScrollPane scroll = new JScrollPane(table);
 
@@ -48,12 +166,88 @@ public class MainFrame extends JFrame {
         buttons.add(addBtn);
         buttons.add(editBtn);
         buttons.add(delBtn);
+        needsData.add(addBtn);
+        needsData.add(editBtn);
+        needsData.add(delBtn);
+
+        JPanel top = new JPanel(new GridLayout(2, 1));
+        top.add(buttons);
+        top.add(buildFilterBar());
 
         setJMenuBar(buildMenu());
 
         getContentPane().setLayout(new BorderLayout());
-        getContentPane().add(buttons, BorderLayout.NORTH);
+        getContentPane().add(top, BorderLayout.NORTH);
         getContentPane().add(scroll, BorderLayout.CENTER);
+
+        busy.setIndeterminate(true);
+        statusBar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        statusBar.add(status, BorderLayout.CENTER);
+        statusBar.add(busy, BorderLayout.EAST);
+        getContentPane().add(statusBar, BorderLayout.SOUTH);
+
+        needsData.forEach(c -> c.setEnabled(false));
+    }
+
+    private JPanel buildFilterBar() {
+        JButton apply = new JButton("Найти");
+        JButton reset = new JButton("Сбросить");
+        apply.addActionListener(e -> onFilter());
+        reset.addActionListener(e -> {
+            cityField.setText("");
+            typeBox.setSelectedIndex(0);
+            minPriceField.setText("");
+            maxPriceField.setText("");
+            onFilter();
+        });
+        // Enter в любом поле — тоже «Найти»
+        cityField.addActionListener(e -> onFilter());
+        cityField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { pickedCityKey = null; }
+            @Override public void removeUpdate(DocumentEvent e) { pickedCityKey = null; }
+            @Override public void changedUpdate(DocumentEvent e) { }
+        });
+        minPriceField.addActionListener(e -> onFilter());
+        maxPriceField.addActionListener(e -> onFilter());
+        typeBox.addActionListener(e -> onFilter());
+
+        JPanel bar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        bar.add(new JLabel("Город:"));
+        bar.add(cityField);
+        bar.add(new JLabel("Тип:"));
+        bar.add(typeBox);
+        bar.add(new JLabel("Цена от"));
+        bar.add(minPriceField);
+        bar.add(new JLabel("до"));
+        bar.add(maxPriceField);
+        bar.add(apply);
+        bar.add(reset);
+        needsData.addAll(List.of(cityField, typeBox, minPriceField, maxPriceField, apply, reset));
+        return bar;
+    }
+
+    /** Отбор выполняет БД: условия панели → TariffFilter → WHERE. */
+    private void onFilter() {
+        Double min, max;
+        try {
+            min = parsePrice(minPriceField.getText());
+            max = parsePrice(maxPriceField.getText());
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Цена: введите число (например 1.5)", "Ошибка", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        Object type = typeBox.getSelectedItem();
+        TariffFilter f = (pickedCityKey != null
+                        ? TariffFilter.all().withCityKey(pickedCityKey)
+                        : TariffFilter.all().withCityLike(cityField.getText()))
+                .withType(type instanceof TariffType t ? t : null)
+                .withPriceRange(min, max);
+        model.setQuery(f, model.getSort());
+    }
+
+    private static Double parsePrice(String s) {
+        String t = s.trim().replace(',', '.');
+        return t.isEmpty() ? null : Double.valueOf(t);
     }
 
     private JMenuBar buildMenu() {
@@ -76,42 +270,59 @@ public class MainFrame extends JFrame {
         JMenu act = new JMenu("Действия");
         JMenuItem avg  = new JMenuItem("Средняя цена");
         JMenuItem sum  = new JMenuItem("Общая сумма цен");
+        JMenuItem stats = new JMenuItem("Статистика по типам и городам…");
         JMenuItem inc  = new JMenuItem("Изменить все цены на %");
+        JMenuItem rate = new JMenuItem("Тарификация звонков (CSV)…");
 
         avg.addActionListener(e -> onAverage());
         sum.addActionListener(e -> onTotal());
+        stats.addActionListener(e -> onStatistics());
         inc.addActionListener(e -> onIncreaseAll());
+        rate.addActionListener(e -> onRateCalls());
 
         act.add(avg);
         act.add(sum);
+        act.add(stats);
         act.add(inc);
+        act.addSeparator();
+        act.add(rate);
 
         mb.add(file);
         mb.add(act);
+        needsData.addAll(List.of(open, save, act));
         return mb;
     }
 
+    /** Таблица до подключения данных: колонки есть, строк нет. */
+    private static final class EmptyTableModel extends AbstractTariffTableModel {
+        @Override public int getRowCount() { return 0; }
+        @Override public Tariff getAt(int modelRow) { return null; }
+        @Override protected Tariff peek(int modelRow) { return null; }
+        @Override public void fireAll() { }
+        @Override protected void apply(List<TariffChange> changes) { }
+    }
+
     private void onAdd() {
         TariffFormDialog dlg = new TariffFormDialog(this, manager);
         dlg.setVisible(true);
-        model.fireAll();
     }
 
     private void onEdit() {
         int viewRow = table.getSelectedRow();
         if (viewRow < 0) return;
-        int modelRow = table.convertRowIndexToModel(viewRow);
-        Tariff t = model.getAt(modelRow);
+        Tariff t = model.getAt(table.convertRowIndexToModel(viewRow));
+        int index = manager.indexOf(t);
+        if (index < 0) return;
 
-        TariffFormDialog dlg = new TariffFormDialog(this, manager, t, modelRow);
+        TariffFormDialog dlg = new TariffFormDialog(this, manager, t, index);
         dlg.setVisible(true);
-        model.fireAll();
     }
 
     private void onDelete() {
         int viewRow = table.getSelectedRow();
         if (viewRow < 0) return;
-        int modelRow = table.convertRowIndexToModel(viewRow);
+        int index = manager.indexOf(model.getAt(table.convertRowIndexToModel(viewRow)));
+        if (index < 0) return;
 
         int res = JOptionPane.showConfirmDialog(this,
                 "Удалить выбранный тариф?",
@@ -121,8 +332,7 @@ public class MainFrame extends JFrame {
 
         if (res == JOptionPane.YES_OPTION) {
             try {
-                manager.remove(modelRow);
-                model.fireAll();
+                manager.remove(index);
             } catch (TariffException ex) {
                 JOptionPane.showMessageDialog(this, ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
             }
@@ -147,56 +357,114 @@ public class MainFrame extends JFrame {
         }
     }
 
+    /** Сводка итоговых цен: всего, по типам, по городам (из готовых агрегатов менеджера). */
+    private void onStatistics() {
+        TariffStatistics st = manager.statistics();
+        if (st.getOverall().getCount() == 0) {
+            JOptionPane.showMessageDialog(this, "Нет тарифов", "Ошибка", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        DefaultTableModel rows = new DefaultTableModel(
+                new Object[]{"Группа", "Тарифов", "Сумма", "Средняя", "Мин.", "Макс."}, 0) {
+            @Override public boolean isCellEditable(int r, int c) { return false; }
+        };
+        addSummaryRow(rows, "Все тарифы", st.getOverall());
+        st.getByType().forEach((type, s) -> addSummaryRow(rows, "Тип: " + type, s));
+        st.getByCity().forEach((city, s) -> addSummaryRow(rows, city, s));
+
+        JTable t = new JTable(rows);
+        t.setRowHeight(22);
+        JScrollPane sp = new JScrollPane(t);
+        sp.setPreferredSize(new Dimension(640, 360));
+        JOptionPane.showMessageDialog(this, sp, "Статистика итоговых цен, руб/мин", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private static void addSummaryRow(DefaultTableModel rows, String group, TariffStatistics.Summary s) {
+        rows.addRow(new Object[]{
+                group,
+                s.getCount(),
+                String.format("%.2f", s.getTotal()),
+                String.format("%.2f", s.getAverage()),
+                String.format("%.2f", s.getMin()),
+                String.format("%.2f", s.getMax())
+        });
+    }
+
     private void onIncreaseAll() {
         String s = JOptionPane.showInputDialog(this,
                 "На сколько процентов изменить цены? (например, 10 или -5)");
         if (s == null) return;
 
+        double p;
         try {
-            double p = Double.parseDouble(s.trim().replace(',', '.'));
-            manager.increaseAllPrices(p);
-            model.fireAll();
+            p = Double.parseDouble(s.trim().replace(',', '.'));
         } catch (NumberFormatException e) {
             JOptionPane.showMessageDialog(this, "Введите число (например 10)", "Ошибка", JOptionPane.ERROR_MESSAGE);
-        } catch (TariffException ex) {
-            JOptionPane.showMessageDialog(this, ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+            return;
         }
+        BackgroundTask.run(this, "Изменение цен",
+                monitor -> {
+                    manager.increasePrices(p, TariffFilter.all(), monitor);
+                    return null;
+                },
+                r -> { });
     }
 
-    /** Загрузка из CSV → через TariffManager → в БД. */
+    /** Файл звонков (city;type;duration) → файл с их стоимостью по текущим тарифам. */
+    private void onRateCalls() {
+        JFileChooser in = chooser("Звонки для тарификации (city;type;duration)");
+        if (in.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        JFileChooser out = chooser("Сохранить результат тарификации");
+        if (out.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+
+        File src = in.getSelectedFile();
+        File dst = appendCsvIfMissing(out.getSelectedFile());
+        BackgroundTask.run(this, "Тарификация " + src.getName(),
+                monitor -> CdrCsvIO.rateParallel(src, dst, CallRatingEngine.of(manager), true, monitor),
+                res -> {
+                    StringBuilder sb = new StringBuilder()
+                            .append("Звонков: ").append(res.getRecords())
+                            .append("\nТарифицировано: ").append(res.getRated());
+                    if (res.getUnrated() > 0) sb.append("\nБез тарифа: ").append(res.getUnrated());
+                    res.getTotals().byType().forEach((type, s) -> sb.append(String.format(
+                            "%n%s: %d мин, %.2f руб", type, s.getMinutes(), s.getAmount())));
+                    sb.append(String.format("%nИтого: %.2f руб", res.getTotalCents() / 100.0));
+                    JOptionPane.showMessageDialog(this, sb.toString(), "Тарификация завершена",
+                            JOptionPane.INFORMATION_MESSAGE);
+                });
+    }
+
+    /** Загрузка из CSV → через TariffManager → в БД (в фоне, с ходом и отменой). */
     private void onOpen() {
         JFileChooser fc = chooser("Загрузить CSV в БД");
         int r = fc.showOpenDialog(this);
         if (r != JFileChooser.APPROVE_OPTION) return;
 
         File file = fc.getSelectedFile();
-        try {
-            CsvIO.ImportResult res = CsvIO.loadAdd(file, manager);
-            model.fireAll();
-            JOptionPane.showMessageDialog(this,
-                    "Всего строк: " + res.getTotal() +
-                            "\nДобавлено: " + res.getAdded() +
-                            (res.getSkipped() > 0 ? "\nПропущено дублей: " + res.getSkipped() : ""),
-                    "Импорт завершён",
-                    JOptionPane.INFORMATION_MESSAGE);
-        } catch (TariffException ex) {
-            JOptionPane.showMessageDialog(this, ex.getMessage(), "Ошибка импорта", JOptionPane.ERROR_MESSAGE);
-        }
+        BackgroundTask.run(this, "Импорт " + file.getName(),
+                monitor -> CsvIO.loadAdd(file, manager, monitor),
+                res -> JOptionPane.showMessageDialog(this,
+                        "Всего строк: " + res.getTotal() +
+                                "\nДобавлено: " + res.getAdded() +
+                                (res.getSkipped() > 0 ? "\nПропущено дублей: " + res.getSkipped() : ""),
+                        "Импорт завершён",
+                        JOptionPane.INFORMATION_MESSAGE));
     }
 
-    /** Сохранение текущего состояния БД в CSV. */
+    /** Сохранение текущего состояния БД в CSV (в фоне, с ходом и отменой). */
     private void onSave() {
         JFileChooser fc = chooser("Сохранить CSV (экспорт из БД)");
         int r = fc.showSaveDialog(this);
         if (r != JFileChooser.APPROVE_OPTION) return;
 
         File file = appendCsvIfMissing(fc.getSelectedFile());
-        try {
-            CsvIO.save(file, manager.getTariffs());
-            JOptionPane.showMessageDialog(this, "Сохранено: " + file.getAbsolutePath());
-        } catch (TariffException ex) {
-            JOptionPane.showMessageDialog(this, ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
-        }
+        BackgroundTask.run(this, "Экспорт " + file.getName(),
+                monitor -> {
+                    CsvIO.export(file, manager, monitor);
+                    return file;
+                },
+                f -> JOptionPane.showMessageDialog(this, "Сохранено: " + f.getAbsolutePath()));
     }
 
     private static JFileChooser chooser(String title) {
@@ -0,0 +1,304 @@
+package atc.ui;
+
+import atc.data.TariffFilter;
+import atc.data.TariffRepository;
+import atc.data.TariffSort;
+import atc.model.Tariff;
+import atc.service.TariffChange;
+import atc.service.TariffManager;
+
+import javax.swing.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+
+/**
+ * Ленивая таблица для больших БД: число строк — из COUNT(*), сами строки
+ * читаются страницами по PAGE_SIZE в фоновом потоке. Отбор (TariffFilter) и порядок
+ * (TariffSort) выполняет хранилище — WHERE и ORDER BY по индексу.
+ * Следующая страница берётся по ключу последней строки предыдущей (keyset),
+ * к дальним страницам — по OFFSET. В памяти не больше MAX_PAGES страниц (LRU).
+ * Без отбора и в естественном порядке строки совпадают с TariffManager.getTariffs(),
+ * и события менеджера применяются по позициям: сдвиг сбрасывает только страницы
+ * не выше затронутой; иначе любое изменение — пересчёт, после которого правленая
+ * строка, когда её страница прочитана, снова отдаётся в выделение (setReselectListener).
+ * Пересчёт (COUNT) идёт в том же фоновом потоке, что и страницы: у подключённой модели
+ * он ждёт записи очереди в БД, и EDT ждать его не должен. Пока пересчёт не вернулся,
+ * точечные события неприменимы (неизвестно, учёл ли его COUNT) — каждое запускает новый.
+ * Все поля, кроме wanted и manager, трогаются только из EDT.
+ *
+ * Модель можно открыть прямо на хранилище (только чтение: страницы — его COUNT и LIMIT),
+ * пока менеджер ещё строится, — первая страница не ждёт чтения всей таблицы;
+ * connect(manager) затем переключает чтение на менеджер и подписывает на изменения.
+ * Менеджер отдаёт страницы и COUNT из хранилища (в окне — из SQLite после записи
+ * очереди WriteBehindTariffRepository), а не из своего снимка: в памяти модели — не больше
+ * MAX_PAGES страниц. Снимок всей таблицы в TariffManager остаётся ради правки
+ * (проверка дублей, сводки, indexOf для событий, подсказки городов).
+ */
+public class PagedTariffTableModel extends AbstractTariffTableModel {
+    static final int PAGE_SIZE = 256;
+    static final int MAX_PAGES = 64;
+    /** Сколько соседних страниц подгружать вокруг видимой. */
+    private static final int PREFETCH = 2;
+
+    /** Хранилище до connect(...); null, если модель сразу построена на менеджере. */
+    private final TariffRepository repo;
+    /** После connect(...) страницы читаются через него (фоновый загрузчик видит замену). */
+    private volatile TariffManager manager;
+    private TariffFilter filter = TariffFilter.all();
+    private TariffSort sort = TariffSort.NATURAL;
+
+    private final Map<Integer, List<Tariff>> pages = new LinkedHashMap<>(MAX_PAGES * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Tariff>> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    /** Последняя строка каждой уже прочитанной страницы — ключ для keyset-запроса следующей. */
+    private final Map<Integer, Tariff> lastKeys = new HashMap<>();
+    private final Set<Integer> pending = new HashSet<>();
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "atc-page-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private int rowCount;
+    private int generation;
+    /** Пересчёт строк ещё не вернулся. */
+    private boolean counting;
+    /** Последняя запрошенная страница: загрузку далёких от неё страниц пропускаем (быстрая прокрутка). */
+    private volatile int wanted;
+    /** id правленой строки, которую вернуть в выделение после пересчёта; null — не нужно. */
+    private Long reselectId;
+    private IntConsumer reselect = row -> { };
+
+    public PagedTariffTableModel(TariffManager manager) {
+        this.repo = null;
+        this.manager = manager;
+        rowCount = (int) Math.min(Integer.MAX_VALUE, count(filter));
+        listen(manager);
+    }
+
+    /** Только чтение из repo, до connect(...): изменений модель не видит. */
+    public PagedTariffTableModel(TariffRepository repo) {
+        this.repo = repo;
+        rowCount = (int) Math.min(Integer.MAX_VALUE, count(filter));
+    }
+
+    /**
+     * Перейти с хранилища на менеджер над теми же данными (в EDT, один раз). Прочитанные
+     * страницы остаются — порядок строк тот же; число строк сверяется в фоне.
+     */
+    public void connect(TariffManager manager) {
+        if (this.manager != null) throw new IllegalStateException("менеджер уже подключён");
+        this.manager = manager;
+        listen(manager);
+        recount();
+    }
+
+    @Override public int getRowCount() { return rowCount; }
+
+    public TariffFilter getFilter() { return filter; }
+    public TariffSort getSort() { return sort; }
+
+    /** Новый отбор и/или порядок: страницы перечитываются из хранилища. */
+    public void setQuery(TariffFilter filter, TariffSort sort) {
+        if (filter.equals(this.filter) && sort.equals(this.sort)) return;
+        this.filter = filter;
+        this.sort = sort;
+        reselectId = null;
+        fireAll();
+    }
+
+    /**
+     * Кому сообщить строку модели, которую вернуть в выделение: пересчёт (fireTableDataChanged)
+     * сбрасывает выделение JTable, а правленая строка могла переехать.
+     */
+    void setReselectListener(IntConsumer listener) {
+        this.reselect = listener;
+    }
+
+    @Override
+    protected Tariff peek(int modelRow) {
+        int page = modelRow / PAGE_SIZE;
+        wanted = page;
+        List<Tariff> rows = pages.get(page);
+        for (int p = Math.max(0, page - PREFETCH); p <= page + PREFETCH; p++) {
+            if (p * PAGE_SIZE < rowCount && !pages.containsKey(p)) request(p);
+        }
+        int i = modelRow % PAGE_SIZE;
+        return rows != null && i < rows.size() ? rows.get(i) : null;
+    }
+
+    /** Строка уже прочитана (без запроса к хранилищу). */
+    boolean isLoaded(int modelRow) {
+        return pages.containsKey(modelRow / PAGE_SIZE);
+    }
+
+    /** Синхронно: нужна для действий над выделенной строкой, которая обычно уже загружена. */
+    @Override
+    public Tariff getAt(int modelRow) {
+        int page = modelRow / PAGE_SIZE;
+        List<Tariff> rows = pages.get(page);
+        if (rows == null) {
+            rows = load(filter, sort, page, lastKeys.get(page - 1));
+            store(page, rows);
+        }
+        int i = modelRow % PAGE_SIZE;
+        return i < rows.size() ? rows.get(i) : null;
+    }
+
+    /** Данные поменялись: сбросить страницы и заново посчитать строки (в фоне). */
+    @Override
+    public void fireAll() {
+        generation++;
+        pages.clear();
+        lastKeys.clear();
+        pending.clear();
+        fireTableDataChanged();
+        recount();
+    }
+
+    /**
+     * COUNT в фоновом потоке; разница с прежним числом — строками в конце таблицы,
+     * чтобы не сбрасывать выделение второй раз. Устаревший (после нового пересчёта или
+     * сдвига страниц) ответ отбрасывается; при ошибке остаётся прежнее число.
+     * COUNT менеджера — под его монитором, так что события об учтённых в нём изменениях
+     * к ответу уже стоят в очереди модели.
+     */
+    private void recount() {
+        counting = true;
+        int gen = generation;
+        TariffFilter f = filter;
+        loader.execute(() -> {
+            long n;
+            try {
+                n = count(f);
+            } catch (RuntimeException e) {
+                n = -1;
+            }
+            int counted = (int) Math.min(Integer.MAX_VALUE, n);
+            SwingUtilities.invokeLater(() -> {
+                // ждущие события уже учтены в COUNT: их apply запустит новый пересчёт
+                if (gen != generation || changesQueued()) return;
+                counting = false;
+                if (counted < 0 || counted == rowCount) return;
+                int old = rowCount;
+                rowCount = counted;
+                if (counted > old) fireTableRowsInserted(old, counted - 1);
+                else fireTableRowsDeleted(counted, old - 1);
+            });
+        });
+    }
+
+    /** Одиночные правки — точечно; пачка (вставка многих строк, фоновая задача) — один пересчёт. */
+    @Override
+    protected void apply(List<TariffChange> changes) {
+        TariffChange c = changes.get(0);
+        if (changes.size() > 1 || c.size() > 1 || c.getKind() == TariffChange.Kind.RESET) {
+            fireAll();
+            return;
+        }
+        if (counting || !filter.isAll() || !sort.isNatural()) {
+            // позиция в отобранном/отсортированном виде (или число строк) неизвестна — пересчёт; строку найдём по id
+            Long edited = c.getKind() == TariffChange.Kind.REMOVED ? null : c.getRows().get(0).getId();
+            fireAll();
+            reselectId = edited;
+            return;
+        }
+        int row = c.position(0);
+        switch (c.getKind()) {
+            case UPDATED -> {
+                dropFrom(row / PAGE_SIZE, row / PAGE_SIZE + 1);
+                fireTableRowsUpdated(row, row);
+            }
+            case INSERTED -> {
+                dropFrom(row / PAGE_SIZE, Integer.MAX_VALUE);
+                rowCount++;
+                fireTableRowsInserted(row, row);
+            }
+            case REMOVED -> {
+                dropFrom(row / PAGE_SIZE, Integer.MAX_VALUE);
+                rowCount--;
+                fireTableRowsDeleted(row, row);
+            }
+            default -> fireAll();
+        }
+    }
+
+    /**
+     * Забыть страницы [from, to): их строки или границы сдвинулись.
+     * Ключ страницы from-1 остаётся верным — строки выше изменения не двигались.
+     * Поколение меняется, чтобы не принять уже летящие (устаревшие) загрузки.
+     */
+    private void dropFrom(int from, int to) {
+        generation++;
+        pages.keySet().removeIf(p -> p >= from && p < to);
+        lastKeys.keySet().removeIf(p -> p >= from && p < to);
+        pending.clear();
+    }
+
+    private void request(int page) {
+        if (!pending.add(page)) return;
+        int gen = generation;
+        Tariff after = lastKeys.get(page - 1);
+        TariffFilter f = filter;
+        TariffSort order = sort;
+        loader.execute(() -> {
+            if (Math.abs(page - wanted) > PREFETCH * 4) {
+                SwingUtilities.invokeLater(() -> { if (gen == generation) pending.remove(page); });
+                return;
+            }
+            List<Tariff> rows;
+            try {
+                rows = load(f, order, page, after);
+            } catch (RuntimeException e) {
+                rows = null;
+            }
+            List<Tariff> loaded = rows;
+            SwingUtilities.invokeLater(() -> {
+                if (gen != generation) return;
+                pending.remove(page);
+                if (loaded == null) return;
+                store(page, loaded);
+                int first = page * PAGE_SIZE;
+                int last = Math.min(rowCount, first + PAGE_SIZE) - 1;
+                if (first <= last) fireTableRowsUpdated(first, last);
+                if (reselectId != null) {
+                    for (int i = 0; i < loaded.size(); i++) {
+                        if (reselectId.equals(loaded.get(i).getId())) {
+                            reselectId = null;
+                            reselect.accept(first + i);
+                            break;
+                        }
+                    }
+                }
+            });
+        });
+    }
+
+    private long count(TariffFilter filter) {
+        TariffManager m = manager;
+        return m != null ? m.count(filter) : repo.count(filter);
+    }
+
+    private List<Tariff> load(TariffFilter filter, TariffSort sort, int page, Tariff after) {
+        TariffManager m = manager;
+        if (m == null) {
+            return after != null
+                    ? repo.findPage(filter, sort, after, PAGE_SIZE)
+                    : repo.findPageAt(filter, sort, (long) page * PAGE_SIZE, PAGE_SIZE);
+        }
+        return after != null
+                ? m.page(filter, sort, after, PAGE_SIZE)
+                : m.pageAt(filter, sort, (long) page * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    private void store(int page, List<Tariff> rows) {
+        pages.put(page, rows);
+        if (!rows.isEmpty()) lastKeys.put(page, rows.get(rows.size() - 1));
+    }
+}